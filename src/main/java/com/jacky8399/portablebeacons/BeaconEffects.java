@@ -1,9 +1,10 @@
 package com.jacky8399.portablebeacons;
 
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
 import com.jacky8399.portablebeacons.utils.BeaconEffectsFilter;
+import com.jacky8399.portablebeacons.utils.EffectLevelMap;
+import com.jacky8399.portablebeacons.utils.EffectSet;
+import com.jacky8399.portablebeacons.utils.PackedEffects;
 import com.jacky8399.portablebeacons.utils.PotionEffectUtils;
 import com.jacky8399.portablebeacons.utils.TextUtils;
 import net.md_5.bungee.api.ChatColor;
@@ -21,17 +22,17 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.*;
 
 public class BeaconEffects implements Cloneable {
-    private static final int DATA_VERSION = 4;
+    public static final int DATA_VERSION = 5;
     @Nullable
     public String customDataVersion = Config.itemCustomVersion;
 
     public BeaconEffects() {
-        this(ImmutableSortedMap.of());
+        this.levels = EMPTY_LEVELS;
+        this.effectMask = EffectSet.EMPTY_MASK;
     }
 
     @Deprecated
@@ -41,25 +42,54 @@ public class BeaconEffects implements Cloneable {
     }
 
     public BeaconEffects(Map<PotionEffectType, Integer> effects) {
-        this.effects = ImmutableSortedMap.copyOf(effects, PotionEffectUtils.POTION_COMPARATOR);
+        setEffects(effects);
+    }
+
+    /**
+     * @param levels The levels of the effects, indexed by {@link PotionEffectUtils#getIndex(PotionEffectType)}
+     * @param effectMask The bitmask of effects present in {@code levels}
+     */
+    private BeaconEffects(short[] levels, long[] effectMask) {
+        this.levels = levels;
+        this.effectMask = effectMask;
     }
 
     public BeaconEffects(BeaconEffects other) {
-        this.effects = other.effects;
-        this.disabledEffects = other.disabledEffects;
+        // the arrays are never modified once assigned, so they can be shared
+        this.levels = other.levels;
+        this.effectMask = other.effectMask;
+        this.effectsView = other.effectsView;
+        this.disabledMask = other.disabledMask;
         this.expReductionLevel = other.expReductionLevel;
         this.soulboundOwner = other.soulboundOwner;
         this.soulboundLevel = other.soulboundLevel;
         this.beaconatorLevel = other.beaconatorLevel;
         this.beaconatorSelectedLevel = other.beaconatorSelectedLevel;
+        this.beaconatorMode = other.beaconatorMode;
         this.customDataVersion = other.customDataVersion;
         this.needsUpdate = other.needsUpdate;
     }
 
+    private static final short[] EMPTY_LEVELS = new short[0];
+    // The arrays below are replaced instead of modified, so that copies and snapshots are unaffected
+    /**
+     * The levels of the effects, indexed by {@link PotionEffectUtils#getIndex(PotionEffectType)}.
+     * Only the levels of effects in {@link #effectMask} are meaningful.
+     */
+    @NotNull
+    private short[] levels;
+    /**
+     * The bitmask of effects present
+     */
     @NotNull
-    private ImmutableSortedMap<PotionEffectType, Integer> effects;
+    private long[] effectMask;
+    /**
+     * The bitmask of effects disabled by the player
+     */
     @NotNull
-    private Set<PotionEffectType> disabledEffects = Set.of();
+    private long[] disabledMask = EffectSet.EMPTY_MASK;
+    @Nullable
+    private EffectLevelMap effectsView;
     public int expReductionLevel = 0;
     @Nullable
     public UUID soulboundOwner = null;
@@ -85,29 +115,66 @@ public class BeaconEffects implements Cloneable {
         }
     }
 
+    /**
+     * @return An unmodifiable view of the effects
+     */
     @NotNull
     public SortedMap<PotionEffectType, Integer> getEffects() {
-        return effects;
+        EffectLevelMap view = effectsView;
+        if (view == null)
+            effectsView = view = new EffectLevelMap(levels, effectMask);
+        return view;
     }
 
     @NotNull
     public SortedMap<PotionEffectType, Integer> getEnabledEffects() {
-        TreeMap<PotionEffectType, Integer> enabledEffects = new TreeMap<>(effects);
-        enabledEffects.keySet().removeAll(disabledEffects);
-        return enabledEffects;
+        return new EffectLevelMap(levels, EffectSet.andNot(effectMask, disabledMask));
     }
 
+    /**
+     * @return An unmodifiable view of the disabled effects
+     */
     @NotNull
     public Set<PotionEffectType> getDisabledEffects() {
-        return disabledEffects;
+        return new EffectSet(disabledMask);
     }
 
     public void setEffects(Map<PotionEffectType, Integer> effects) {
-        this.effects = ImmutableSortedMap.copyOf(effects, PotionEffectUtils.POTION_COMPARATOR);
+        short[] newLevels = new short[PotionEffectUtils.getIndexedEffectCount()];
+        long[] newMask = new long[(newLevels.length + 63) >> 6];
+        for (var entry : effects.entrySet()) {
+            int index = PotionEffectUtils.getIndex(entry.getKey());
+            if (index >= newLevels.length) // registered in the meantime
+                newLevels = Arrays.copyOf(newLevels, index + 1);
+            newLevels[index] = entry.getValue().shortValue();
+            newMask = EffectSet.set(newMask, index);
+        }
+        setEffects(newLevels, newMask);
+    }
+
+    private void setEffects(short[] levels, long[] effectMask) {
+        this.levels = levels;
+        this.effectMask = effectMask;
+        this.effectsView = null;
     }
 
     public void setDisabledEffects(Set<PotionEffectType> disabledEffects) {
-        this.disabledEffects = Set.copyOf(disabledEffects);
+        long[] newMask = EffectSet.EMPTY_MASK;
+        for (PotionEffectType type : disabledEffects) {
+            if (newMask == EffectSet.EMPTY_MASK)
+                newMask = new long[(PotionEffectUtils.getIndexedEffectCount() + 63) >> 6];
+            newMask = EffectSet.set(newMask, PotionEffectUtils.getIndex(type));
+        }
+        this.disabledMask = newMask;
+    }
+
+    private boolean isEnabled(int index) {
+        return !EffectSet.has(disabledMask, index);
+    }
+
+    private boolean matches(BeaconEffectsFilter filter, long[] mask) {
+        int index = PotionEffectUtils.getIndex(filter.type());
+        return EffectSet.has(mask, index) && filter.testLevel(levels[index]);
     }
 
     public boolean hasOwner() {
@@ -123,49 +190,47 @@ public class BeaconEffects implements Cloneable {
     }
 
     public void filter(Collection<? extends BeaconEffectsFilter> filters, boolean whitelist) {
-        Map<PotionEffectType, Integer> map = whitelist ? new HashMap<>() : new HashMap<>(effects);
+        long[] newMask = whitelist ? new long[effectMask.length] : effectMask.clone();
         for (BeaconEffectsFilter filter : filters) {
-            if (filter.contains(effects)) {
+            if (matches(filter, effectMask)) {
+                int index = PotionEffectUtils.getIndex(filter.type());
                 if (whitelist)
-                    map.put(filter.type(), effects.get(filter.type()));
+                    newMask[index >> 6] |= 1L << index;
                 else
-                    map.remove(filter.type());
+                    newMask[index >> 6] &= ~(1L << index);
             }
         }
-        setEffects(map);
+        // the levels are unchanged
+        setEffects(levels, newMask);
     }
 
     public void filter(@Nullable Collection<? extends BeaconEffectsFilter> allowed,
                        @Nullable Collection<? extends BeaconEffectsFilter> blocked) {
-        Map<PotionEffectType, Integer> map = allowed != null ? new HashMap<>() : new HashMap<>(effects);
+        long[] newMask = allowed != null ? new long[effectMask.length] : effectMask.clone();
         if (allowed != null) {
             for (BeaconEffectsFilter filter : allowed) {
-                if (filter.contains(effects)) {
-                    map.put(filter.type(), effects.get(filter.type()));
+                if (matches(filter, effectMask)) {
+                    int index = PotionEffectUtils.getIndex(filter.type());
+                    newMask[index >> 6] |= 1L << index;
                 }
             }
         }
         if (blocked != null) {
             for (BeaconEffectsFilter filter : blocked) {
-                if (filter.contains(map)) {
-                    map.remove(filter.type());
+                if (matches(filter, newMask)) {
+                    int index = PotionEffectUtils.getIndex(filter.type());
+                    newMask[index >> 6] &= ~(1L << index);
                 }
             }
         }
-        setEffects(map);
+        setEffects(levels, newMask);
     }
 
     public List<PotionEffect> toEffects() {
-        // don't need the map to be sorted, filter ourselves
-        Map<PotionEffectType, Integer> allEffects = getEffects();
-        int capacity = allEffects.size();
-        List<PotionEffect> enabledEffects = new ArrayList<>(capacity);
-        for (var entry : allEffects.entrySet()) {
-            PotionEffectType effect = entry.getKey();
-            if (disabledEffects.contains(effect)) continue;
-            Config.PotionEffectInfo info = Config.getInfo(effect);
-            int duration = info.getDuration();
-            enabledEffects.add(new PotionEffect(effect, duration, entry.getValue() - 1, true, !info.isHideParticles()));
+        List<PotionEffect> enabledEffects = new ArrayList<>(EffectSet.count(effectMask));
+        for (int i = EffectSet.nextSetBit(effectMask, 0); i != -1; i = EffectSet.nextSetBit(effectMask, i + 1)) {
+            if (isEnabled(i))
+                enabledEffects.add(Config.getPotionEffect(PotionEffectUtils.getByIndex(i), levels[i]));
         }
         return enabledEffects;
     }
@@ -179,10 +244,10 @@ public class BeaconEffects implements Cloneable {
         boolean hasEnchants = hasExpReduction || hasSoulbound || hasBeaconator;
 
         if (showEffects) {
-            for (Map.Entry<PotionEffectType, Integer> entry : effects.entrySet()) {
-                BaseComponent display = PotionEffectUtils.getDisplayName(entry.getKey(), entry.getValue());
+            for (int i = EffectSet.nextSetBit(effectMask, 0); i != -1; i = EffectSet.nextSetBit(effectMask, i + 1)) {
+                BaseComponent display = PotionEffectUtils.getDisplayName(PotionEffectUtils.getByIndex(i), levels[i]);
                 display.setItalic(false);
-                if (disabledEffects.contains(entry.getKey())) {
+                if (!isEnabled(i)) {
                     display.setColor(ChatColor.GRAY);
                     display.setStrikethrough(true);
                 }
@@ -215,6 +280,74 @@ public class BeaconEffects implements Cloneable {
         return lines;
     }
 
+    /**
+     * Creates a key that is equal for beacon effects that produce the same {@link #toLore(boolean, boolean)}
+     * under the current config.
+     */
+    @NotNull
+    public Object getLoreKey(boolean showEffects, boolean showEnchants) {
+        return new LoreKey(this, showEffects, showEnchants, Config.generation);
+    }
+
+    private static final class LoreKey {
+        // only the effects are compared, so the levels and masks are reduced to the effects present
+        private final short[] effectLevels;
+        private final long[] enabledMask;
+        private final int expReductionLevel;
+        @Nullable
+        private final UUID soulboundOwner;
+        private final int soulboundLevel;
+        private final int beaconatorLevel;
+        private final boolean showEffects, showEnchants;
+        private final int generation;
+        private final int hashCode;
+
+        LoreKey(BeaconEffects effects, boolean showEffects, boolean showEnchants, int generation) {
+            long[] effectMask = effects.effectMask;
+            int count = EffectSet.count(effectMask);
+            // pairs of (index, level)
+            short[] effectLevels = new short[count * 2];
+            long[] enabledMask = new long[(count + 63) >> 6];
+            int j = 0;
+            for (int i = EffectSet.nextSetBit(effectMask, 0); i != -1; i = EffectSet.nextSetBit(effectMask, i + 1), j++) {
+                effectLevels[j * 2] = (short) i;
+                effectLevels[j * 2 + 1] = effects.levels[i];
+                if (effects.isEnabled(i))
+                    enabledMask[j >> 6] |= 1L << j;
+            }
+            this.effectLevels = effectLevels;
+            this.enabledMask = enabledMask;
+            this.expReductionLevel = effects.expReductionLevel;
+            this.soulboundOwner = effects.soulboundOwner;
+            this.soulboundLevel = effects.soulboundLevel;
+            this.beaconatorLevel = effects.beaconatorLevel;
+            this.showEffects = showEffects;
+            this.showEnchants = showEnchants;
+            this.generation = generation;
+
+            int hash = Arrays.hashCode(effectLevels);
+            hash = 31 * hash + Arrays.hashCode(enabledMask);
+            hash = 31 * hash + Objects.hash(expReductionLevel, soulboundOwner, soulboundLevel, beaconatorLevel,
+                    showEffects, showEnchants, generation);
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof LoreKey other && hashCode == other.hashCode &&
+                    expReductionLevel == other.expReductionLevel && soulboundLevel == other.soulboundLevel &&
+                    beaconatorLevel == other.beaconatorLevel && showEffects == other.showEffects &&
+                    showEnchants == other.showEnchants && generation == other.generation &&
+                    Objects.equals(soulboundOwner, other.soulboundOwner) &&
+                    Arrays.equals(effectLevels, other.effectLevels) && Arrays.equals(enabledMask, other.enabledMask);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     private static void addLegacyLore(List<BaseComponent> lines, String legacyString) {
         for (String line : legacyString.split("\n")) {
             TextComponent text = new TextComponent(TextComponent.fromLegacyText(line));
@@ -227,11 +360,9 @@ public class BeaconEffects implements Cloneable {
         if (Config.nerfExpLevelsPerMinute == 0)
             return 0;
         int totalEffects = 0;
-        for (var entry : effects.entrySet()) {
-            if (!disabledEffects.contains(entry.getKey())) {
-                int value = entry.getValue();
-                totalEffects += value;
-            }
+        for (int i = EffectSet.nextSetBit(effectMask, 0); i != -1; i = EffectSet.nextSetBit(effectMask, i + 1)) {
+            if (isEnabled(i))
+                totalEffects += levels[i];
         }
         double expMultiplier = Config.enchExpReductionEnabled ?
                 Math.max(0, 1 - expReductionLevel * Config.enchExpReductionReductionPerLevel) : 1;
@@ -243,26 +374,24 @@ public class BeaconEffects implements Cloneable {
     }
 
     public void validateEffects() {
-        HashMap<PotionEffectType, Integer> newEffects = new LinkedHashMap<>(effects);
-        HashSet<PotionEffectType> newDisabledEffects = null;
+        short[] newLevels = levels.clone();
+        long[] newMask = effectMask.clone();
+        long[] newDisabledMask = disabledMask.clone();
 
-        for (var iterator = newEffects.entrySet().iterator(); iterator.hasNext();) {
-            var entry = iterator.next();
-            PotionEffectType effect = entry.getKey();
+        for (int i = EffectSet.nextSetBit(effectMask, 0); i != -1; i = EffectSet.nextSetBit(effectMask, i + 1)) {
+            PotionEffectType effect = PotionEffectUtils.getByIndex(i);
             Config.PotionEffectInfo info = Config.getInfo(effect);
             int maxAmplifier = info.getMaxAmplifier();
             if (maxAmplifier == 0) { // disallowed effect
-                iterator.remove();
-                if (newDisabledEffects == null)
-                    newDisabledEffects = new HashSet<>(disabledEffects);
-                newDisabledEffects.remove(effect);
-            } else if (entry.getValue() > maxAmplifier) {
-                entry.setValue(maxAmplifier);
+                newMask[i >> 6] &= ~(1L << i);
+                if (i >> 6 < newDisabledMask.length)
+                    newDisabledMask[i >> 6] &= ~(1L << i);
+            } else if (newLevels[i] > maxAmplifier) {
+                newLevels[i] = (short) maxAmplifier;
             }
         }
-        setEffects(newEffects);
-        if (newDisabledEffects != null)
-            setDisabledEffects(newDisabledEffects);
+        setEffects(newLevels, newMask);
+        disabledMask = newDisabledMask;
         // downgrade enchantments
         expReductionLevel = Math.min(expReductionLevel, Config.enchExpReductionMaxLevel);
         soulboundLevel = Math.min(soulboundLevel, Config.enchSoulboundMaxLevel);
@@ -276,7 +405,7 @@ public class BeaconEffects implements Cloneable {
         // only save effects and custom enchants
         int minLevel = allowVirtual ? 0 : 1;
         var map = new LinkedHashMap<String, Object>();
-        for (Map.Entry<PotionEffectType, Integer> entry : effects.entrySet()) {
+        for (Map.Entry<PotionEffectType, Integer> entry : getEffects().entrySet()) {
             PotionEffectType potion = entry.getKey();
             Integer level = entry.getValue();
             if (level >= minLevel)
@@ -357,7 +486,42 @@ public class BeaconEffects implements Cloneable {
                 ENCHANT_SOULBOUND_OWNER = key("enchant_soulbound_owner"),
                 ENCHANT_BEACONATOR = key("enchant_beaconator"),
                 ENCHANT_BEACONATOR_SELECTED = key("enchant_beaconator_selected"),
-                ENCHANT_BEACONATOR_MODE = key("enchant_beaconator_mode");
+                ENCHANT_BEACONATOR_MODE = key("enchant_beaconator_mode"),
+                PACKED_EFFECTS = key("packed_effects");
+
+        /**
+         * The effect types of the {@link PackedEffects} dictionary, or null if the server doesn't have them
+         */
+        private static final PotionEffectType[] PACKED_TYPES = new PotionEffectType[PackedEffects.EFFECT_KEYS.size()];
+        /**
+         * The {@link PotionEffectUtils#getIndex(PotionEffectType) index} of each packed effect, or -1 if the server doesn't have it
+         */
+        private static final int[] PACKED_INDICES = new int[PACKED_TYPES.length];
+        private static final Map<PotionEffectType, Integer> PACKED_IDS = new HashMap<>();
+        static {
+            for (int i = 0; i < PACKED_TYPES.length; i++) {
+                PotionEffectType type = PotionEffectType.getByKey(NamespacedKey.fromString(PackedEffects.EFFECT_KEYS.get(i)));
+                PACKED_TYPES[i] = type;
+                PACKED_INDICES[i] = type != null ? PotionEffectUtils.getIndex(type) : -1;
+                if (type != null)
+                    PACKED_IDS.put(type, i);
+            }
+        }
+
+        private static short[] setLevel(short[] levels, int index, int level) {
+            if (index >= levels.length) // registered after startup
+                levels = Arrays.copyOf(levels, index + 1);
+            levels[index] = (short) level;
+            return levels;
+        }
+
+        private static boolean canPack(BeaconEffects effects) {
+            for (PotionEffectType type : effects.getEffects().keySet()) {
+                if (!PACKED_IDS.containsKey(type))
+                    return false;
+            }
+            return true;
+        }
 
 
         @Override
@@ -373,17 +537,45 @@ public class BeaconEffects implements Cloneable {
         @Override
         public @NotNull PersistentDataContainer toPrimitive(BeaconEffects complex, PersistentDataAdapterContext context) {
             PersistentDataContainer container = context.newPersistentDataContainer();
+            // effects added by other plugins aren't in the dictionary
+            if (canPack(complex)) {
+                long[] effectMask = complex.effectMask;
+                int count = EffectSet.count(effectMask);
+                int[] ids = new int[count], levels = new int[count];
+                long disabledMask = 0;
+                int i = 0;
+                for (int index = EffectSet.nextSetBit(effectMask, 0); index != -1; index = EffectSet.nextSetBit(effectMask, index + 1)) {
+                    int id = PACKED_IDS.get(PotionEffectUtils.getByIndex(index));
+                    ids[i] = id;
+                    levels[i] = complex.levels[index];
+                    if (!complex.isEnabled(index))
+                        disabledMask |= 1L << id;
+                    i++;
+                }
+                container.set(PACKED_EFFECTS, INTEGER_ARRAY, PackedEffects.pack(new PackedEffects.Unpacked(ids, levels, disabledMask,
+                        complex.expReductionLevel, complex.soulboundLevel, complex.beaconatorLevel, complex.beaconatorSelectedLevel)));
+                if (complex.soulboundOwner != null)
+                    container.set(ENCHANT_SOULBOUND_OWNER, LONG_ARRAY,
+                            new long[]{complex.soulboundOwner.getMostSignificantBits(), complex.soulboundOwner.getLeastSignificantBits()});
+                if (complex.beaconatorLevel != 0 && complex.beaconatorMode != null)
+                    container.set(ENCHANT_BEACONATOR_MODE, STRING, complex.beaconatorMode);
+
+                container.set(DATA_VERSION_KEY, INTEGER, DATA_VERSION);
+                if (complex.customDataVersion != null)
+                    container.set(CUSTOM_DATA_VERSION_KEY, STRING, complex.customDataVersion);
+                return container;
+            }
+
             PersistentDataContainer effects = context.newPersistentDataContainer();
             // too bad there's no string list
             // use boolean map as a poor replacement
             PersistentDataContainer effectsDisabled = context.newPersistentDataContainer();
-            for (Map.Entry<PotionEffectType, Integer> entry : complex.effects.entrySet()) {
-                PotionEffectType type = entry.getKey();
-                Integer level = entry.getValue();
-                NamespacedKey key = type.getKey();
-                effects.set(key, SHORT, level.shortValue());
+            long[] effectMask = complex.effectMask;
+            for (int index = EffectSet.nextSetBit(effectMask, 0); index != -1; index = EffectSet.nextSetBit(effectMask, index + 1)) {
+                NamespacedKey key = PotionEffectUtils.getByIndex(index).getKey();
+                effects.set(key, SHORT, complex.levels[index]);
                 // disabled
-                if (complex.disabledEffects.contains(type))
+                if (!complex.isEnabled(index))
                     effectsDisabled.set(key, BYTE, (byte) 1);
             }
             container.set(EFFECTS, TAG_CONTAINER, effects);
@@ -404,7 +596,7 @@ public class BeaconEffects implements Cloneable {
                     container.set(ENCHANT_BEACONATOR_MODE, STRING, complex.beaconatorMode);
             }
 
-            container.set(DATA_VERSION_KEY, INTEGER, DATA_VERSION);
+            container.set(DATA_VERSION_KEY, INTEGER, 4);
             if (complex.customDataVersion != null)
                 container.set(CUSTOM_DATA_VERSION_KEY, STRING, complex.customDataVersion);
             return container;
@@ -415,25 +607,59 @@ public class BeaconEffects implements Cloneable {
             Integer dataVersion = primitive.get(DATA_VERSION_KEY, INTEGER);
             if (dataVersion == null)
                 return parseLegacyV1(primitive);
-            else if (dataVersion == 3 || dataVersion == 4) {
+            else if (dataVersion == 5) {
+                PackedEffects.Unpacked unpacked = PackedEffects.unpack(primitive.get(PACKED_EFFECTS, INTEGER_ARRAY));
+                int[] ids = unpacked.ids(), levels = unpacked.levels();
+                int effectCount = PotionEffectUtils.getIndexedEffectCount();
+                short[] effectLevels = new short[effectCount];
+                long[] effectMask = new long[(effectCount + 63) >> 6];
+                long[] disabledMask = EffectSet.EMPTY_MASK;
+                for (int i = 0; i < ids.length; i++) {
+                    int id = ids[i];
+                    int index = id < PACKED_INDICES.length ? PACKED_INDICES[id] : -1;
+                    if (index == -1) continue;
+                    effectLevels = setLevel(effectLevels, index, levels[i]);
+                    effectMask = EffectSet.set(effectMask, index);
+                    if (unpacked.isDisabled(id))
+                        disabledMask = EffectSet.set(disabledMask, index);
+                }
+                BeaconEffects ret = new BeaconEffects(effectLevels, effectMask);
+                ret.disabledMask = disabledMask;
+                ret.customDataVersion = primitive.get(CUSTOM_DATA_VERSION_KEY, STRING);
+                ret.expReductionLevel = unpacked.expReductionLevel();
+                ret.soulboundLevel = unpacked.soulboundLevel();
+                long[] bits = primitive.get(ENCHANT_SOULBOUND_OWNER, LONG_ARRAY);
+                if (bits != null)
+                    ret.soulboundOwner = new UUID(bits[0], bits[1]);
+                ret.beaconatorLevel = unpacked.beaconatorLevel();
+                ret.beaconatorSelectedLevel = unpacked.beaconatorSelectedLevel();
+                ret.beaconatorMode = primitive.get(ENCHANT_BEACONATOR_MODE, STRING);
+                return ret;
+            } else if (dataVersion == 3 || dataVersion == 4) {
                 PersistentDataContainer effects = primitive.get(EFFECTS, TAG_CONTAINER);
-                ImmutableMap.Builder<PotionEffectType, Integer> effectsMap = ImmutableMap.builder();
+                int effectCount = PotionEffectUtils.getIndexedEffectCount();
+                short[] effectLevels = new short[effectCount];
+                long[] effectMask = new long[(effectCount + 63) >> 6];
                 for (NamespacedKey key : effects.getKeys()) {
-                    PotionEffectType type = PotionEffectUtils.parsePotion(key);
+                    PotionEffectType type = PotionEffectUtils.getByKey(key);
                     if (type == null) continue;
                     short level = effects.get(key, SHORT);
-                    effectsMap.put(type, (int) level);
+                    int index = PotionEffectUtils.getIndex(type);
+                    effectLevels = setLevel(effectLevels, index, level);
+                    effectMask = EffectSet.set(effectMask, index);
                 }
-                BeaconEffects ret = new BeaconEffects(effectsMap.build());
+                BeaconEffects ret = new BeaconEffects(effectLevels, effectMask);
                 // disabled effects
                 if (dataVersion == 4) {
                     PersistentDataContainer disabledEffects = primitive.get(DISABLED_EFFECTS, PersistentDataType.TAG_CONTAINER);
                     if (disabledEffects != null) {
-                        var disabledEffectsSet = disabledEffects.getKeys().stream()
-                                .map(PotionEffectUtils::parsePotion)
-                                .filter(Objects::nonNull)
-                                .collect(Collectors.toUnmodifiableSet());
-                        ret.setDisabledEffects(disabledEffectsSet);
+                        long[] disabledMask = EffectSet.EMPTY_MASK;
+                        for (NamespacedKey key : disabledEffects.getKeys()) {
+                            PotionEffectType type = PotionEffectUtils.getByKey(key);
+                            if (type != null)
+                                disabledMask = EffectSet.set(disabledMask, PotionEffectUtils.getIndex(type));
+                        }
+                        ret.disabledMask = disabledMask;
                     }
                 }
 
@@ -456,11 +682,14 @@ public class BeaconEffects implements Cloneable {
                     ret.beaconatorSelectedLevel = primitive.get(ENCHANT_BEACONATOR_SELECTED, INTEGER);
                     ret.beaconatorMode = primitive.get(ENCHANT_BEACONATOR_MODE, STRING);
                 }
+                // convert to the packed format next time the item is updated
+                if (canPack(ret))
+                    ret.needsUpdate = true;
                 return ret;
             } else if (dataVersion == 2) {
                 return parseLegacyV2(primitive);
             } else {
-                throw new UnsupportedOperationException("Invalid data version " + dataVersion + ", only data versions 2-4 and null are supported");
+                throw new UnsupportedOperationException("Invalid data version " + dataVersion + ", only data versions 2-5 and null are supported");
             }
         }
 
@@ -27,6 +27,7 @@ import org.jetbrains.annotations.Nullable;
 import java.awt.*;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.List;
 import java.util.*;
@@ -106,6 +107,12 @@ public class CommandPortableBeacons implements TabExecutor {
                 }
             }
             return CommandUtils.listModifications(args[args.length - 1], "set".equalsIgnoreCase(args[1]));
+        } else if (args[0].equalsIgnoreCase("updateitems") && args.length == 2 &&
+                sender.hasPermission(COMMAND_PERM + "updateitems")) {
+            return Stream.of("containers", "offline", "status", "pause", "resume", "cancel");
+        } else if (args[0].equalsIgnoreCase("updateitems") && args.length == 3 && args[1].equalsIgnoreCase("offline") &&
+                sender.hasPermission(COMMAND_PERM + "updateitems")) {
+            return Stream.of("dry-run");
         } else if (args[0].equalsIgnoreCase("inspect") && args.length == 2 &&
                 sender.hasPermission(COMMAND_PERM + "inspect")) {
             return listPlayers(sender);
@@ -324,11 +331,7 @@ public class CommandPortableBeacons implements TabExecutor {
             case "updateitems" -> {
                 if (!checkPermission(sender, "updateitems"))
                     return;
-                // six characters
-                Config.itemCustomVersion = Integer.toHexString(ThreadLocalRandom.current().nextInt(0xFFFFFF + 1));
-                PortableBeacons.INSTANCE.saveConfig();
-                sender.sendMessage(GREEN + "All portable beacon items will be forced to update soon.\n" +
-                        GREEN + "Configuration saved to file.");
+                doUpdateItems(sender, args, label);
             }
             case "inspect" -> {
                 if (!checkPermission(sender, "inspect"))
@@ -362,6 +365,75 @@ public class CommandPortableBeacons implements TabExecutor {
         }
     }
 
+    public void doUpdateItems(CommandSender sender, String[] args, String label) {
+        String operation = args.length > 1 ? args[1] : "";
+        ItemMigration migration = ItemMigration.getCurrent();
+        switch (operation) {
+            case "", "containers" -> {
+                // six characters
+                Config.itemCustomVersion = Integer.toHexString(ThreadLocalRandom.current().nextInt(0xFFFFFF + 1));
+                PortableBeacons.INSTANCE.saveConfig();
+                ItemMigration.start(operation.equals("containers"));
+                sender.sendMessage(GREEN + "All portable beacon items will be forced to update soon.\n" +
+                        GREEN + "Configuration saved to file.\n" +
+                        GREEN + "Updating items in online players' inventories" +
+                        (operation.equals("containers") ? " and loaded containers" : "") + " in the background.\n" +
+                        GREEN + "Use " + YELLOW + "/" + label + " updateitems status" + GREEN + " to check the progress.");
+            }
+            case "offline" -> {
+                boolean dryRun = args.length > 2 && args[2].equalsIgnoreCase("dry-run");
+                Path playerData = Bukkit.getWorlds().get(0).getWorldFolder().toPath().resolve("playerdata");
+                int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+                sender.sendMessage(GREEN + "Converting portable beacons of offline players" + (dryRun ? " (dry run)" : "") + "...\n" +
+                        YELLOW + "Players who are online or log in during the conversion may not be converted.");
+                // players can't be looked up from other threads
+                Set<UUID> onlinePlayers = new HashSet<>();
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    onlinePlayers.add(player.getUniqueId());
+                }
+                Bukkit.getScheduler().runTaskAsynchronously(PortableBeacons.INSTANCE, () -> {
+                    String message;
+                    try {
+                        OfflineMigration.Report report = OfflineMigration.run(playerData, onlinePlayers::contains, dryRun, threads);
+                        for (String error : report.errors()) {
+                            PortableBeacons.LOGGER.warning("Failed to convert " + error);
+                        }
+                        message = GREEN + (dryRun ? "(Dry run) " : "") + report +
+                                (report.errors().isEmpty() ? "" : "\n" + YELLOW + "Refer to the console for the errors.");
+                    } catch (IOException ex) {
+                        PortableBeacons.LOGGER.log(Level.SEVERE, "Failed to convert offline players", ex);
+                        message = RED + "Failed to convert offline players: " + ex;
+                    }
+                    String finalMessage = message;
+                    Bukkit.getScheduler().runTask(PortableBeacons.INSTANCE, () -> sender.sendMessage(finalMessage));
+                });
+            }
+            case "status" -> {
+                if (migration == null) {
+                    sender.sendMessage(YELLOW + "No items have been updated since the server started.");
+                    return;
+                }
+                String state = migration.isDone() ? "Finished" : migration.isPaused() ? "Paused" : "Running";
+                sender.sendMessage(GREEN + state + ": " + migration.getStatus());
+            }
+            case "pause", "resume" -> {
+                if (migration == null || migration.isDone())
+                    throw new IllegalStateException("No items are being updated");
+                boolean pause = operation.equals("pause");
+                migration.setPaused(pause);
+                sender.sendMessage(GREEN + (pause ? "Paused" : "Resumed") + " updating items.");
+            }
+            case "cancel" -> {
+                if (migration == null || migration.isDone())
+                    throw new IllegalStateException("No items are being updated");
+                migration.cancel();
+                sender.sendMessage(GREEN + "Stopped updating items: " + migration.getStatus() + "\n" +
+                        GREEN + "Other items will still be updated when they are used.");
+            }
+            default -> throw promptUsage(label, "updateitems [containers/offline/status/pause/resume/cancel]");
+        }
+    }
+
     public void doInspect(CommandSender sender, Player target) {
         ItemStack stack = target.getInventory().getItemInMainHand();
         if (!ItemUtils.isPortableBeacon(stack)) {
@@ -536,6 +608,7 @@ public class CommandPortableBeacons implements TabExecutor {
                 for (Player p : players) {
                     stack = ItemUtils.createStack(p, beaconEffects);
                     Map<Integer, ItemStack> unfit = p.getInventory().addItem(stack);
+                    PortableBeacons.INSTANCE.effectsTimer.markDirty(p);
                     if (!unfit.isEmpty() && unfit.get(0) != null && unfit.get(0).getAmount() != 0) {
                         failedPlayers.add(p.getName());
                     } else {
@@ -1024,8 +1097,17 @@ public class CommandPortableBeacons implements TabExecutor {
                     {@arg item}: Item to set as the ritual item. Accepts NBT tags. Defaults to the item in the player's hand.
                     {@arg amount}: Amount required. Defaults to 1 or the amount of item in the player's hand.
                     """),
-            "updateitems", topic("updateitems", "updateitems", """
+            "updateitems", topic("updateitems", "updateitems [containers/offline/status/pause/resume/cancel]", """
                     Request that all portable beacons be updated.
+                    Items in online players' inventories and ender chests are updated in the background,
+                    other items are updated when they are used.
+                    
+                    {@color blue Arguments}
+                    {@arg containers}: Also update items in containers in loaded chunks.
+                    {@arg offline}: Converts items of offline players to the current data format. \
+                    Best run when no players are online. Add {@arg dry-run} to only count the items.
+                    {@arg status}: Shows the progress of the update.
+                    {@arg pause}, {@arg resume}, {@arg cancel}: Controls the background update.
                     
                     The following will be updated:
                     - Item lore
@@ -17,6 +17,7 @@ import org.bukkit.enchantments.Enchantment;
 import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.potion.PotionEffect;
 import org.bukkit.potion.PotionEffectType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -314,8 +315,25 @@ public class Config {
 
         worldGuard = config.getBoolean("world-guard");
 
+        // Performance
+        performanceStaggerPlayers = config.getBoolean("performance.stagger-players");
+        performanceTickBudget = getAndCheckDouble(0, config, "performance.tick-budget");
+        performanceAsyncEffects = config.getBoolean("performance.async-effects");
+        performanceDeltaEffects = config.getBoolean("performance.delta-effects");
+        performanceMigrationBudget = getAndCheckDouble(0, config, "performance.migration-budget");
+        performanceChunkScan = config.getBoolean("performance.chunk-scan");
+        performanceBlocksPerTick = getAndCheckInt(1, config, "performance.blocks-per-tick");
+        String protectionCheck = config.getString("performance.protection-check", "block");
+        try {
+            performanceProtectionCheck = ProtectionCheckMode.valueOf(protectionCheck.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            logger.severe("Config \"performance.protection-check\" must be one of block, chunk or world-guard, got " + protectionCheck);
+            performanceProtectionCheck = ProtectionCheckMode.BLOCK;
+        }
+
         placeholderApi = Bukkit.getPluginManager().getPlugin("PlaceholderAPI") != null;
 
+        generation++;
         logger.info("Config loaded");
     }
 
@@ -354,6 +372,20 @@ public class Config {
                 PortableBeacons.INSTANCE.logger.severe("Skipping erroneous config 'effects." + key + "': " + e.getMessage());
             }
         }
+
+        // intern the potion effects of every level allowed in recipes
+        Map<PotionEffectType, PotionEffect[]> newPotionEffects = new HashMap<>();
+        for (PotionEffectType type : PotionEffectType.values()) {
+            PotionEffectInfo info = getInfo(type);
+            int duration = info.getDuration();
+            boolean particles = !info.isHideParticles();
+            PotionEffect[] levels = new PotionEffect[info.getMaxAmplifier()];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new PotionEffect(type, duration, i, true, particles);
+            }
+            newPotionEffects.put(type, levels);
+        }
+        potionEffects = newPotionEffects;
     }
 
     public static boolean migrateEffectsLegacy(FileConfiguration config) {
@@ -468,6 +500,11 @@ public class Config {
 
     public static boolean debug;
 
+    /**
+     * Incremented every time the config is loaded, so that caches derived from config values can be invalidated
+     */
+    public static int generation = 0;
+
     public static boolean ritualEnabled;
     public static ItemStack ritualItem;
 
@@ -520,6 +557,35 @@ public class Config {
 
     public static boolean worldGuard;
 
+    // Performance
+    public static boolean performanceStaggerPlayers;
+    public static double performanceTickBudget;
+    public static boolean performanceAsyncEffects;
+    public static boolean performanceDeltaEffects;
+    public static double performanceMigrationBudget;
+    public static boolean performanceChunkScan;
+    public static int performanceBlocksPerTick;
+    public static ProtectionCheckMode performanceProtectionCheck;
+
+    /**
+     * How block changes made by pyramids are checked against protection plugins
+     */
+    public enum ProtectionCheckMode {
+        /**
+         * Fire an event for every block
+         */
+        BLOCK,
+        /**
+         * Fire an event for the first block in every chunk, and reuse the result for the rest of the chunk
+         */
+        CHUNK,
+        /**
+         * Query WorldGuard once for the whole pyramid. Only the beacon block fires an event.
+         * Same as {@link #CHUNK} if WorldGuard is not installed.
+         */
+        WORLD_GUARD
+    }
+
     public static boolean placeholderApi;
 
 
@@ -536,6 +602,24 @@ public class Config {
         return effects.getOrDefault(potion, EMPTY_INFO);
     }
 
+    // replaced as a whole so that it can be read asynchronously
+    private static volatile Map<PotionEffectType, PotionEffect[]> potionEffects = Map.of();
+    /**
+     * Gets the potion effect applied by portable beacons, with the duration and particles from the config.
+     * The instances are shared, and only created for levels above the max amplifier.
+     * @param potion The potion effect type
+     * @param level The level of the effect, starting from 1
+     * @return The potion effect
+     */
+    @NotNull
+    public static PotionEffect getPotionEffect(PotionEffectType potion, int level) {
+        PotionEffect[] levels = potionEffects.get(potion);
+        if (levels != null && level >= 1 && level <= levels.length)
+            return levels[level - 1];
+        PotionEffectInfo info = getInfo(potion);
+        return new PotionEffect(potion, info.getDuration(), level - 1, true, !info.isHideParticles());
+    }
+
     public interface EffectFormatter {
         String format(int level);
 
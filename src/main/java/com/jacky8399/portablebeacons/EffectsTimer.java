@@ -1,103 +1,616 @@
 package com.jacky8399.portablebeacons;
 
+import com.jacky8399.portablebeacons.recipes.ExpCostCalculator;
 import com.jacky8399.portablebeacons.utils.ItemUtils;
+import com.jacky8399.portablebeacons.utils.PlayerGrid;
 import com.jacky8399.portablebeacons.utils.WorldGuardHelper;
 import org.bukkit.Bukkit;
 import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.Material;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.*;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+import org.jetbrains.annotations.Nullable;
 
-public class EffectsTimer implements Runnable {
+import java.util.*;
+import java.util.logging.Level;
+
+public class EffectsTimer implements Runnable, Listener {
     public static final double CYCLE_TIME_MULTIPLIER = 0.5;
+    public static final int CYCLE_TICKS = (int) (150 * CYCLE_TIME_MULTIPLIER);
 
     public void register() {
-        Bukkit.getScheduler().runTaskTimer(PortableBeacons.INSTANCE, this, 0, (int) (150 * CYCLE_TIME_MULTIPLIER));
+        Bukkit.getScheduler().runTaskTimer(PortableBeacons.INSTANCE, this, 0, 1);
+        Bukkit.getPluginManager().registerEvents(this, PortableBeacons.INSTANCE);
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            addPlayer(player);
+        }
+    }
+
+    private long currentTick = 0;
+
+    @SuppressWarnings("unchecked")
+    private final List<Player>[] buckets = new List[CYCLE_TICKS];
+    {
+        for (int i = 0; i < CYCLE_TICKS; i++) {
+            buckets[i] = new ArrayList<>();
+        }
     }
+    /**
+     * Players waiting to be processed in staggered mode, including those carried over from previous ticks
+     */
+    private final ArrayDeque<Player> pendingPlayers = new ArrayDeque<>();
 
     @Override
     public void run() {
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            applyEffects(player);
+        int bucket = (int) (currentTick++ % CYCLE_TICKS);
+        // snapshots to compute off the main thread, or null to apply effects immediately
+        List<PlayerSnapshot> batch = Config.performanceAsyncEffects ? new ArrayList<>() : null;
+        if (!Config.performanceStaggerPlayers) {
+            if (!pendingPlayers.isEmpty()) {
+                for (Player player : pendingPlayers) {
+                    PlayerState state = playerStates.get(player);
+                    if (state != null)
+                        state.queued = false;
+                }
+                pendingPlayers.clear();
+            }
+            if (bucket == 0) {
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    processPlayer(player, batch);
+                }
+                if (batch != null && !batch.isEmpty())
+                    computePlansAsync(batch);
+            }
+            return;
+        }
+
+        // each player is enqueued exactly once per cycle
+        for (Player player : buckets[bucket]) {
+            PlayerState state = playerStates.get(player);
+            if (state != null && !state.queued) {
+                state.queued = true;
+                pendingPlayers.add(player);
+            }
+        }
+
+        long deadline = System.nanoTime() + (long) (Config.performanceTickBudget * 1_000_000);
+        Player player;
+        while ((player = pendingPlayers.poll()) != null) {
+            PlayerState state = playerStates.get(player);
+            if (state == null || !player.isOnline())
+                continue;
+            state.queued = false;
+            processPlayer(player, batch);
+            // carry the remaining players over to the next tick
+            if (System.nanoTime() >= deadline)
+                break;
+        }
+        if (batch != null && !batch.isEmpty())
+            computePlansAsync(batch);
+    }
+
+    /**
+     * The decoded beacon effects of an inventory slot.
+     * A copy of the item is kept so that in-place modifications of the item are also detected.
+     * @param stack A copy of the item in the slot
+     * @param effects The decoded effects, or null if the item is not a portable beacon
+     * @param potionEffects The result of {@link BeaconEffects#toEffects()}
+     * @param generation The config generation the effects were decoded in
+     */
+    private record CachedItem(ItemStack stack,
+                              @Nullable BeaconEffects effects,
+                              @Nullable List<PotionEffect> potionEffects,
+                              int generation) {
+        boolean isValidFor(ItemStack other) {
+            return generation == Config.generation && stack.isSimilar(other);
+        }
+    }
+
+    private static final int INVENTORY_SIZE = 41;
+    /**
+     * Rescan the entire inventory every few cycles anyway,
+     * in case items were added without firing any inventory event (e.g. by commands or other plugins)
+     */
+    private static final int FULL_SCAN_INTERVAL = 8;
+
+    private static final class PlayerState {
+        final int bucket;
+        /**
+         * Whether the player is waiting to be processed in staggered mode
+         */
+        boolean queued = false;
+
+        PlayerState(Player player) {
+            bucket = Math.floorMod(player.getUniqueId().hashCode(), CYCLE_TICKS);
+        }
+
+        final CachedItem[] items = new CachedItem[INVENTORY_SIZE];
+        /**
+         * Bitmask of inventory slots known to hold portable beacons
+         */
+        long beaconSlots = 0;
+        boolean dirty = true;
+        int cyclesSinceScan = 0;
+        /**
+         * The strongest effects shared with the player by beaconator carriers since the player was last processed
+         */
+        @Nullable
+        Map<PotionEffectType, PotionEffect> sharedEffects;
+        /**
+         * The effects last sent to the player in delta mode
+         */
+        @Nullable
+        Map<PotionEffectType, AppliedEffect> appliedEffects;
+    }
+
+    private final Map<Player, PlayerState> playerStates = new WeakHashMap<>();
+
+    private PlayerState addPlayer(Player player) {
+        PlayerState state = new PlayerState(player);
+        PlayerState oldState = playerStates.put(player, state);
+        if (oldState != null)
+            buckets[oldState.bucket].remove(player);
+        buckets[state.bucket].add(player);
+        return state;
+    }
+
+    private void removePlayer(Player player) {
+        PlayerState state = playerStates.remove(player);
+        if (state != null)
+            buckets[state.bucket].remove(player);
+    }
+
+    /**
+     * Marks the inventory of the player as changed, so that it will be scanned for portable beacons in the next cycle.
+     * @param player The player
+     */
+    public void markDirty(Player player) {
+        PlayerState state = playerStates.get(player);
+        if (state != null)
+            state.dirty = true;
+    }
+
+    @Nullable
+    private static CachedItem getCachedItem(CachedItem[] cache, ItemStack stack, int index) {
+        if (stack == null || stack.getType() != Material.BEACON) {
+            cache[index] = null;
+            return null;
+        }
+        CachedItem cached = cache[index];
+        if (cached != null && cached.isValidFor(stack))
+            return cached;
+
+        BeaconEffects effects = ItemUtils.getEffects(stack);
+        cached = new CachedItem(stack.clone(), effects,
+                effects != null ? List.copyOf(effects.toEffects()) : null, Config.generation);
+        cache[index] = cached;
+        return cached;
+    }
+
+    private static void scanInventory(PlayerState state, PlayerInventory inventory) {
+        // storage contents, armor and offhand (inventory slots 0-40)
+        ItemStack[] items = inventory.getContents();
+        long beaconSlots = 0;
+        for (int i = 0; i < items.length && i < INVENTORY_SIZE; i++) {
+            CachedItem cached = getCachedItem(state.items, items[i], i);
+            if (cached != null && cached.effects != null)
+                beaconSlots |= 1L << i;
         }
+        state.beaconSlots = beaconSlots;
+        state.dirty = false;
+        state.cyclesSinceScan = 0;
     }
 
-    private static final int[] HOTBAR_SLOTS = {0, 1, 2, 3, 4, 5, 6, 7, 8, 40};
+    private static final long HOTBAR_SLOTS = 0x1FFL | 1L << 40; // 0-8, 40
     public void applyEffects(Player player) {
-        boolean doWorldGuard = Config.worldGuard && PortableBeacons.INSTANCE.worldGuardInstalled &&
-                !WorldGuardHelper.canBypass(player);
-        // world check
-        if (Config.nerfDisabledWorlds.contains(player.getWorld().getName()))
-            return;
+        processPlayer(player, null);
+    }
 
-        if (doWorldGuard && !WorldGuardHelper.canUseBeacons(player))
+    private void processPlayer(Player player, @Nullable List<PlayerSnapshot> batch) {
+        PlayerSnapshot snapshot = takeSnapshot(player);
+        if (snapshot == null) {
+            // don't apply effects shared in a disabled world later
+            PlayerState state = playerStates.get(player);
+            if (state != null)
+                state.sharedEffects = null;
             return;
+        }
+        if (batch != null) {
+            batch.add(snapshot);
+        } else {
+            applyPlan(computePlan(snapshot));
+        }
+    }
+
+    /**
+     * Reads the portable beacons of the player, updating obsolete items along the way.
+     * Must be called on the main thread.
+     * @param player The player
+     * @return The snapshot, or null if beacons are disabled in the world of the player
+     */
+    @Nullable
+    private PlayerSnapshot takeSnapshot(Player player) {
+        // world check
+        if (Config.nerfDisabledWorlds.contains(player.getWorld().getName()))
+            return null;
 
+        boolean doWorldGuard = Config.worldGuard && PortableBeacons.INSTANCE.worldGuardInstalled &&
+                !WorldGuardHelper.canBypass(player);
         boolean checkSoulbound = Config.enchSoulboundEnabled && Config.enchSoulboundOwnerUsageOnly;
 
+        PlayerState state = playerStates.get(player);
+        if (state == null)
+            state = addPlayer(player);
         PlayerInventory inventory = player.getInventory();
-        if (Config.nerfOnlyApplyInHotbar) {
-            for (int i : HOTBAR_SLOTS) {
-                ItemStack stack = inventory.getItem(i);
-                tickItem(stack, player, inventory, i, doWorldGuard, checkSoulbound);
+        if (state.dirty || ++state.cyclesSinceScan >= FULL_SCAN_INTERVAL)
+            scanInventory(state, inventory);
+
+        long slots = state.beaconSlots;
+        if (Config.nerfOnlyApplyInHotbar)
+            slots &= HOTBAR_SLOTS;
+        Location location = player.getLocation();
+        List<ItemSnapshot> items = new ArrayList<>(Long.bitCount(slots));
+        // only visit slots known to hold portable beacons
+        for (; slots != 0; slots &= slots - 1) {
+            int index = Long.numberOfTrailingZeros(slots);
+            ItemStack stack = inventory.getItem(index);
+            ItemSnapshot item = tickItem(state, stack, player, inventory, index, checkSoulbound);
+            if (item == null)
+                continue;
+            if (Config.enchBeaconatorEnabled && item.effects.beaconatorLevel > 0)
+                item = shareEffects(player, location, item);
+            items.add(item);
+        }
+        return new PlayerSnapshot(player, location, doWorldGuard, items);
+    }
+
+    // Beaconator
+
+    /**
+     * How often (in ticks) player positions are reindexed for beaconator
+     */
+    private static final int GRID_REBUILD_INTERVAL = 20;
+    private final PlayerGrid playerGrid = new PlayerGrid();
+    private long lastGridRebuild = Long.MIN_VALUE;
+
+    /**
+     * Finds the players the beaconator enchantment of the item can reach.
+     * Must be called on the main thread.
+     */
+    private ItemSnapshot shareEffects(Player player, Location location, ItemSnapshot item) {
+        BeaconEffects effects = item.effects;
+        if (currentTick - lastGridRebuild >= GRID_REBUILD_INTERVAL) {
+            lastGridRebuild = currentTick;
+            List<Player> players = new ArrayList<>();
+            for (Player other : Bukkit.getOnlinePlayers()) {
+                if (!Config.nerfDisabledWorlds.contains(other.getWorld().getName()))
+                    players.add(other);
             }
+            playerGrid.rebuild(players);
+        }
+
+        Config.BeaconatorLevel level = Config.getBeaconatorLevel(effects.beaconatorLevel, effects.beaconatorSelectedLevel);
+        List<Player> recipients = new ArrayList<>();
+        playerGrid.getNearbyPlayers(location, level.radius(), recipients);
+        recipients.removeIf(recipient -> recipient == player || !recipient.isOnline() || recipient.isDead());
+        if (recipients.isEmpty())
+            return item;
+
+        int expCost;
+        if (level.expCost() != null) {
+            expCost = level.expCost().getCost(player, effects);
         } else {
-            // inventory slots (excluding armor and offhand)
-            ItemStack[] items = inventory.getStorageContents();
-            for (int i = 0; i < items.length; i++) {
-                ItemStack stack = items[i];
-                tickItem(stack, player, inventory, i, doWorldGuard, checkSoulbound);
-            }
-            // armor (inventory slots 36-39)
-            items = inventory.getArmorContents();
-            for (int i = 0; i < items.length; i++) {
-                ItemStack stack = items[i];
-                tickItem(stack, player, inventory, 36 + i, doWorldGuard, checkSoulbound);
-            }
-            // offhand (inventory slot 40)
-            tickItem(inventory.getItemInOffHand(), player, inventory, 40, doWorldGuard, checkSoulbound);
+            int selectedLevel = effects.beaconatorSelectedLevel == 0 ?
+                    effects.beaconatorLevel : Math.min(effects.beaconatorSelectedLevel, effects.beaconatorLevel);
+            expCost = ExpCostCalculator.DynamicUnrestricted.INSTANCE.getCost(player, effects) * selectedLevel;
+        }
+        if (expCost < 0) // too expensive
+            return item;
+        return new ItemSnapshot(effects, item.potionEffects, recipients, expCost * CYCLE_TIME_MULTIPLIER * (1/16d));
+    }
+
+    // Effect application plans
+
+    /**
+     * @param effects The effects of the item. Never modified once snapshotted.
+     * @param potionEffects The result of {@link BeaconEffects#toEffects()}
+     * @param recipients The players the effects are shared with
+     * @param sharingExpPerCycle The additional experience to deduct for sharing the effects
+     */
+    private record ItemSnapshot(BeaconEffects effects, List<PotionEffect> potionEffects,
+                                List<Player> recipients, double sharingExpPerCycle) {
+        ItemSnapshot(BeaconEffects effects, List<PotionEffect> potionEffects) {
+            this(effects, potionEffects, List.of(), 0);
+        }
+    }
+
+    /**
+     * Everything needed to compute the effects of a player without touching the world or the inventory
+     */
+    private record PlayerSnapshot(Player player, Location location, boolean doWorldGuard, List<ItemSnapshot> items) {}
+
+    /**
+     * @param potionEffects The potion effects to apply if the experience could be deducted
+     * @param expPerCycle The experience to deduct
+     * @param recipients The players to share the potion effects with
+     * @param sharingExpPerCycle The additional experience to deduct for sharing the potion effects
+     */
+    private record ItemPlan(List<PotionEffect> potionEffects, double expPerCycle,
+                            List<Player> recipients, double sharingExpPerCycle) {}
+
+    /**
+     * @param player The player
+     * @param blocked Whether the player is in a region where beacons are disabled
+     * @param items The plans of each item
+     */
+    private record ApplicationPlan(Player player, boolean blocked, List<ItemPlan> items) {}
+
+    /**
+     * Filters the effects of the player and calculates the experience cost.
+     * Safe to call asynchronously.
+     * @param snapshot The snapshot
+     * @return The plan
+     */
+    private static ApplicationPlan computePlan(PlayerSnapshot snapshot) {
+        Player player = snapshot.player;
+        Location location = snapshot.location;
+        boolean doWorldGuard = snapshot.doWorldGuard;
+        if (doWorldGuard && !WorldGuardHelper.canUseBeacons(player, location))
+            return new ApplicationPlan(player, true, List.of());
+
+        List<ItemPlan> items = new ArrayList<>(snapshot.items.size());
+        for (ItemSnapshot item : snapshot.items) {
+            BeaconEffects beaconEffects = item.effects;
+            // filtered effects
+            BeaconEffects actualEffects = beaconEffects;
+            // filter effects
+            if (doWorldGuard)
+                actualEffects = WorldGuardHelper.filterBeaconEffects(player, location, beaconEffects);
+
+            // shared effects are filtered by the regions of the carrier, just like a beacon block
+            items.add(new ItemPlan(actualEffects == beaconEffects ? item.potionEffects : actualEffects.toEffects(),
+                    calcExpPerCycle(actualEffects), item.recipients, item.sharingExpPerCycle));
         }
+        return new ApplicationPlan(player, false, items);
     }
 
-    private static void tickItem(ItemStack stack, Player player, PlayerInventory inventory, int index,
-                          boolean doWorldGuard, boolean checkSoulbound) {
-        BeaconEffects beaconEffects = ItemUtils.getEffects(stack);
-        if (beaconEffects == null)
+    /**
+     * Deducts experience, shares the potion effects with beaconator recipients,
+     * and applies the potion effects together with the effects shared with the player.
+     * Must be called on the main thread.
+     */
+    private void applyPlan(ApplicationPlan plan) {
+        Player player = plan.player;
+        PlayerState state = playerStates.get(player);
+        // effects shared with the player since the last cycle
+        Map<PotionEffectType, PotionEffect> effects = null;
+        if (state != null) {
+            effects = state.sharedEffects;
+            state.sharedEffects = null;
+        }
+        if (plan.blocked)
             return;
+        if (effects == null)
+            effects = new HashMap<>();
+
+        for (ItemPlan item : plan.items) {
+            // check levels
+            if (!tryDeductExp(player, item.expPerCycle))
+                continue;
+
+            for (PotionEffect effect : item.potionEffects)
+                mergeEffect(effects, effect);
+
+            if (!item.recipients.isEmpty() && tryDeductExp(player, item.sharingExpPerCycle)) {
+                // applied once in the cycle of the recipient, no matter how many carriers are nearby
+                for (Player recipient : item.recipients) {
+                    PlayerState recipientState = playerStates.get(recipient);
+                    if (recipientState == null || !recipient.isOnline())
+                        continue;
+                    if (recipientState.sharedEffects == null)
+                        recipientState.sharedEffects = new HashMap<>();
+                    for (PotionEffect effect : item.potionEffects)
+                        mergeEffect(recipientState.sharedEffects, effect);
+                }
+            }
+        }
+        if (!effects.isEmpty()) {
+            if (Config.performanceDeltaEffects && state != null)
+                applyChangedEffects(player, state, effects.values());
+            else
+                player.addPotionEffects(effects.values());
+        }
+    }
+
+    // Delta application
+
+    /**
+     * Effects are reapplied when they have fewer ticks left than this, so that they never run out between cycles
+     */
+    private static final int REFRESH_THRESHOLD = CYCLE_TICKS * 3 / 2;
+    /**
+     * The client starts flickering night vision when it has 10 seconds or fewer left
+     */
+    private static final int NIGHT_VISION_FLICKER_TICKS = 200;
+
+    /**
+     * @param effect The effect last sent to the player
+     * @param expiresAt The tick the effect will run out
+     */
+    private record AppliedEffect(PotionEffect effect, long expiresAt) {
+        boolean canSkip(PotionEffect newEffect, long currentTick) {
+            int threshold = REFRESH_THRESHOLD;
+            if (newEffect.getType().equals(PotionEffectType.NIGHT_VISION))
+                threshold += NIGHT_VISION_FLICKER_TICKS;
+            return expiresAt - currentTick > threshold &&
+                    effect.getAmplifier() == newEffect.getAmplifier() &&
+                    effect.isAmbient() == newEffect.isAmbient() &&
+                    effect.hasParticles() == newEffect.hasParticles();
+        }
+    }
+
+    /**
+     * Only applies effects that the player doesn't have yet, have a different amplifier or are about to expire
+     */
+    private void applyChangedEffects(Player player, PlayerState state, Collection<PotionEffect> effects) {
+        if (state.appliedEffects == null)
+            state.appliedEffects = new HashMap<>();
+        for (PotionEffect effect : effects) {
+            PotionEffectType type = effect.getType();
+            AppliedEffect applied = state.appliedEffects.get(type);
+            // the effect could have been removed by milk, death or other plugins
+            if (applied != null && applied.canSkip(effect, currentTick) && player.hasPotionEffect(type))
+                continue;
+            player.addPotionEffect(effect);
+            state.appliedEffects.put(type, new AppliedEffect(effect, currentTick + effect.getDuration()));
+        }
+    }
+
+    /**
+     * Keeps the stronger of the two effects of the same type, like {@link Player#addPotionEffect(PotionEffect)} does
+     */
+    private static void mergeEffect(Map<PotionEffectType, PotionEffect> effects, PotionEffect effect) {
+        effects.merge(effect.getType(), effect, (oldEffect, newEffect) ->
+                newEffect.getAmplifier() > oldEffect.getAmplifier() ||
+                        newEffect.getAmplifier() == oldEffect.getAmplifier() && newEffect.getDuration() > oldEffect.getDuration() ?
+                        newEffect : oldEffect);
+    }
+
+    private void computePlansAsync(List<PlayerSnapshot> snapshots) {
+        PortableBeacons plugin = PortableBeacons.INSTANCE;
+        int generation = Config.generation;
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            List<ApplicationPlan> plans = new ArrayList<>(snapshots.size());
+            for (PlayerSnapshot snapshot : snapshots) {
+                try {
+                    plans.add(computePlan(snapshot));
+                } catch (Exception ex) {
+                    plugin.logger.log(Level.WARNING, "Failed to compute effects for " + snapshot.player.getName(), ex);
+                }
+            }
+            if (!plugin.isEnabled())
+                return;
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                // the plans might be based on outdated config values
+                if (generation != Config.generation)
+                    return;
+                for (ApplicationPlan plan : plans) {
+                    if (plan.player.isOnline())
+                        applyPlan(plan);
+                }
+            });
+        });
+    }
+
+    // Inventory changes
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent e) {
+        addPlayer(e.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent e) {
+        removePlayer(e.getPlayer());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onInventoryClick(InventoryClickEvent e) {
+        if (e.getWhoClicked() instanceof Player player)
+            markDirty(player);
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onInventoryDrag(InventoryDragEvent e) {
+        if (e.getWhoClicked() instanceof Player player)
+            markDirty(player);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent e) {
+        // items in the crafting grid or on the cursor are returned to the inventory
+        if (e.getPlayer() instanceof Player player)
+            markDirty(player);
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPickupItem(EntityPickupItemEvent e) {
+        if (e.getEntity() instanceof Player player)
+            markDirty(player);
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onDropItem(PlayerDropItemEvent e) {
+        markDirty(e.getPlayer());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onSwapHands(PlayerSwapHandItemsEvent e) {
+        markDirty(e.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onDeath(PlayerDeathEvent e) {
+        markDirty(e.getEntity());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRespawn(PlayerRespawnEvent e) {
+        markDirty(e.getPlayer());
+    }
+
+    @Nullable
+    private static ItemSnapshot tickItem(PlayerState state, ItemStack stack, Player player, PlayerInventory inventory, int index,
+                                         boolean checkSoulbound) {
+        CachedItem cached = getCachedItem(state.items, stack, index);
+        if (cached == null || cached.effects == null) {
+            // no longer a portable beacon
+            state.beaconSlots &= ~(1L << index);
+            return null;
+        }
+        BeaconEffects beaconEffects = cached.effects;
+        List<PotionEffect> potionEffects = cached.potionEffects;
         // owner check
         if (checkSoulbound && !beaconEffects.isOwner(player))
-            return;
+            return null;
 
-        if (beaconEffects.shouldUpdate()) {
-            // downgrade OP effects
-            if (Config.nerfForceDowngrade)
-                beaconEffects.validateEffects();
-            beaconEffects.customDataVersion = Config.itemCustomVersion; // actually update custom data version
-            inventory.setItem(index, ItemUtils.createItemCopyItemData(player, beaconEffects, stack));
+        ItemStack updated = ItemUtils.updateItem(player, beaconEffects, stack);
+        if (updated != null) {
+            inventory.setItem(index, updated);
+            // cache the new item instead of the obsolete one
+            CachedItem updatedCache = getCachedItem(state.items, updated, index);
+            if (updatedCache == null || updatedCache.effects == null)
+                return null;
+            beaconEffects = updatedCache.effects;
+            potionEffects = updatedCache.potionEffects;
             if (Config.debug)
                 PortableBeacons.INSTANCE.logger.info("Updated obsolete beacon item in " + player.getName() + "'s inventory.");
         }
+        return new ItemSnapshot(beaconEffects, potionEffects);
+    }
 
-        // filtered effects
-        BeaconEffects actualEffects = beaconEffects;
-        // filter effects
-        if (doWorldGuard)
-            actualEffects = WorldGuardHelper.filterBeaconEffects(player, beaconEffects);
-
-        // check levels
-        if (!tryDeductExp(player, actualEffects))
-            return;
-
-        player.addPotionEffects(actualEffects.toEffects());
-
+    static double calcExpPerCycle(BeaconEffects effects) {
+        return effects.calcExpPerMinute() * CYCLE_TIME_MULTIPLIER * (1/16d);
     }
 
-    static boolean tryDeductExp(Player player, BeaconEffects effects) {
+    static boolean tryDeductExp(Player player, double expPerCycle) {
         // don't deduct xp from creative players
         if (player.getGameMode() == GameMode.CREATIVE)
             return true;
 
-        double expPerCycle = effects.calcExpPerMinute() * CYCLE_TIME_MULTIPLIER * (1/16d);
         if (expPerCycle != 0) {
             double xp = player.getExp() - expPerCycle;
             if (xp < 0) { // deduct levels
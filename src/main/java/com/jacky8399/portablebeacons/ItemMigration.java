@@ -0,0 +1,222 @@
+package com.jacky8399.portablebeacons;
+
+import com.jacky8399.portablebeacons.utils.ItemUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Container;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Updates obsolete beacon items in the background, a few slots at a time.
+ * <p>
+ * Walks the inventories and ender chests of online players, and optionally the containers in loaded chunks.
+ * Items in other places are still updated by {@link EffectsTimer} when they are next used.
+ */
+public final class ItemMigration implements Runnable {
+    @Nullable
+    private static ItemMigration current;
+
+    /**
+     * @return The current or last migration, or null if no migrations were started
+     */
+    @Nullable
+    public static ItemMigration getCurrent() {
+        return current;
+    }
+
+    /**
+     * Starts a new migration, cancelling the current one if there is one
+     * @param includeContainers Whether to also update containers in loaded chunks
+     * @return The new migration
+     */
+    public static ItemMigration start(boolean includeContainers) {
+        if (current != null)
+            current.cancel();
+        ItemMigration migration = new ItemMigration(includeContainers);
+        current = migration;
+        migration.task = Bukkit.getScheduler().runTaskTimer(PortableBeacons.INSTANCE, migration, 1, 1);
+        return migration;
+    }
+
+    public static void cleanUp() {
+        if (current != null)
+            current.cancel();
+    }
+
+    private sealed interface Target {}
+    private record PlayerTarget(UUID uuid, boolean enderChest) implements Target {}
+    private record ChunkTarget(UUID world, int x, int z) implements Target {}
+    private record ContainerTarget(Inventory inventory) implements Target {}
+
+    private final ArrayDeque<Target> targets = new ArrayDeque<>();
+    private final boolean includeContainers;
+    private BukkitTask task;
+    private boolean paused = false;
+    private boolean done = false;
+
+    // the inventory being updated
+    @Nullable
+    private Inventory inventory;
+    @Nullable
+    private Player owner;
+    private int slot;
+    private boolean inventoryChanged;
+
+    private final int totalPlayers;
+    private int playersScanned = 0;
+    private final int totalChunks;
+    private int chunksScanned = 0;
+    private int containersScanned = 0;
+    private int itemsUpdated = 0;
+    private final long startTime = System.currentTimeMillis();
+
+    private ItemMigration(boolean includeContainers) {
+        this.includeContainers = includeContainers;
+        int players = 0;
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            targets.add(new PlayerTarget(player.getUniqueId(), false));
+            targets.add(new PlayerTarget(player.getUniqueId(), true));
+            players++;
+        }
+        totalPlayers = players;
+        int chunks = 0;
+        if (includeContainers) {
+            for (World world : Bukkit.getWorlds()) {
+                for (Chunk chunk : world.getLoadedChunks()) {
+                    targets.add(new ChunkTarget(world.getUID(), chunk.getX(), chunk.getZ()));
+                    chunks++;
+                }
+            }
+        }
+        totalChunks = chunks;
+    }
+
+    @Override
+    public void run() {
+        if (paused)
+            return;
+        long deadline = System.nanoTime() + (long) (Config.performanceMigrationBudget * 1_000_000);
+        do {
+            if (inventory == null && !nextInventory()) {
+                finish();
+                return;
+            }
+            updateSlot();
+        } while (System.nanoTime() < deadline);
+    }
+
+    private boolean nextInventory() {
+        Target target;
+        while ((target = targets.poll()) != null) {
+            if (target instanceof PlayerTarget playerTarget) {
+                if (playerTarget.enderChest)
+                    playersScanned++;
+                Player player = Bukkit.getPlayer(playerTarget.uuid);
+                if (player == null)
+                    continue;
+                owner = player;
+                inventory = playerTarget.enderChest ? player.getEnderChest() : player.getInventory();
+            } else if (target instanceof ChunkTarget chunkTarget) {
+                chunksScanned++;
+                World world = Bukkit.getWorld(chunkTarget.world);
+                if (world == null || !world.isChunkLoaded(chunkTarget.x, chunkTarget.z))
+                    continue;
+                for (BlockState state : world.getChunkAt(chunkTarget.x, chunkTarget.z).getTileEntities()) {
+                    // only look at one half of double chests
+                    if (state instanceof Chest chest)
+                        targets.addFirst(new ContainerTarget(chest.getBlockInventory()));
+                    else if (state instanceof Container container)
+                        targets.addFirst(new ContainerTarget(container.getInventory()));
+                }
+                continue;
+            } else if (target instanceof ContainerTarget containerTarget) {
+                containersScanned++;
+                owner = null;
+                inventory = containerTarget.inventory;
+            }
+            slot = 0;
+            inventoryChanged = false;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isInventoryValid() {
+        if (owner != null)
+            return owner.isOnline();
+        Location location = inventory.getLocation();
+        return location != null && location.getWorld() != null &&
+                location.getWorld().isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+    }
+
+    private void updateSlot() {
+        if (slot >= inventory.getSize() || !isInventoryValid()) {
+            if (owner != null && inventoryChanged)
+                PortableBeacons.INSTANCE.effectsTimer.markDirty(owner);
+            inventory = null;
+            owner = null;
+            return;
+        }
+        ItemStack stack = inventory.getItem(slot);
+        if (stack != null && stack.getType() == Material.BEACON) {
+            BeaconEffects effects = ItemUtils.getEffects(stack);
+            if (effects != null) {
+                ItemStack updated = ItemUtils.updateItem(owner, effects, stack);
+                if (updated != null) {
+                    inventory.setItem(slot, updated);
+                    itemsUpdated++;
+                    inventoryChanged = true;
+                }
+            }
+        }
+        slot++;
+    }
+
+    private void finish() {
+        cancel();
+        PortableBeacons.INSTANCE.logger.info("Finished updating beacon items: " + getStatus());
+    }
+
+    public void cancel() {
+        done = true;
+        task.cancel();
+        inventory = null;
+        owner = null;
+        targets.clear();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public String getStatus() {
+        StringBuilder status = new StringBuilder();
+        status.append(itemsUpdated).append(" items updated, ")
+                .append(playersScanned).append("/").append(totalPlayers).append(" players");
+        if (includeContainers)
+            status.append(", ").append(chunksScanned).append("/").append(totalChunks).append(" chunks (")
+                    .append(containersScanned).append(" containers)");
+        status.append(" in ").append((System.currentTimeMillis() - startTime) / 1000).append("s");
+        return status.toString();
+    }
+}
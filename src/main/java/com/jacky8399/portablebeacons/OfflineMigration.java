@@ -0,0 +1,305 @@
+package com.jacky8399.portablebeacons;
+
+import com.jacky8399.portablebeacons.utils.NbtIO;
+import com.jacky8399.portablebeacons.utils.PackedEffects;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Converts portable beacons in the saved data of offline players to the current data version.
+ * <p>
+ * Only reads and writes NBT, and does not depend on Bukkit, so that it can also be run without a server:
+ * <pre>
+ * java -cp PortableBeacons.jar com.jacky8399.portablebeacons.OfflineMigration &lt;playerdata folder&gt; [--dry-run] [--threads n]
+ * </pre>
+ * Items in shulker boxes and other nested containers are converted too.
+ * Items with effects that can't be packed are left in their current data version.
+ */
+public final class OfflineMigration {
+    private OfflineMigration() {}
+
+    private static final String NAMESPACE = "portablebeacons";
+    private static final String STORAGE_KEY = key("beacon_effect");
+    private static final String BUKKIT_VALUES = "PublicBukkitValues";
+    /**
+     * The custom data version given to converted legacy items, so that their lore is updated when they are next used
+     */
+    public static final String MIGRATED_CUSTOM_DATA_VERSION = "offline-migration";
+
+    private static final String
+            DATA_VERSION_KEY = key("data_version"), CUSTOM_DATA_VERSION_KEY = key("custom_data_version"),
+            EFFECTS = key("effects_v3"), DISABLED_EFFECTS = key("disabled_effects"),
+            ENCHANT_EXP_REDUCTION = key("enchant_exp_reduction_level"),
+            ENCHANT_SOULBOUND = key("enchant_soulbound_level"),
+            ENCHANT_SOULBOUND_OWNER = key("enchant_soulbound_owner"),
+            ENCHANT_BEACONATOR = key("enchant_beaconator"),
+            ENCHANT_BEACONATOR_SELECTED = key("enchant_beaconator_selected"),
+            ENCHANT_BEACONATOR_MODE = key("enchant_beaconator_mode"),
+            PACKED_EFFECTS = key("packed_effects"),
+            LEGACY_PRIMARY = key("primary_effect"), LEGACY_SECONDARY = key("secondary_effect"),
+            EFFECTS_LEGACY_V1 = key("effects"), EFFECTS_LEGACY_V2 = key("effects_v2");
+
+    private static String key(String key) {
+        return NAMESPACE + ":" + key;
+    }
+
+    public record Report(int files, int filesChanged, int itemsConverted, int itemsSkipped,
+                         int playersSkipped, List<String> errors, long millis) {
+        @Override
+        public String toString() {
+            return files + " files scanned, " + filesChanged + " files changed, " +
+                    itemsConverted + " items converted, " + itemsSkipped + " items skipped, " +
+                    playersSkipped + " online players skipped, " + errors.size() + " errors in " + millis + "ms";
+        }
+    }
+
+    private static final class Counters {
+        final AtomicInteger files = new AtomicInteger(), filesChanged = new AtomicInteger(),
+                itemsConverted = new AtomicInteger(), itemsSkipped = new AtomicInteger(),
+                playersSkipped = new AtomicInteger();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * Converts the beacon items in every player data file in the folder
+     * @param playerData The {@code playerdata} folder of the main world
+     * @param isOnline Players to skip, as the server will overwrite their files. Called from multiple threads.
+     * @param dryRun Whether to only count the items without writing any files
+     * @param threads The number of files to process in parallel
+     * @return The report
+     */
+    public static Report run(Path playerData, Predicate<UUID> isOnline, boolean dryRun, int threads) throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(playerData)) {
+            files = stream.filter(path -> path.getFileName().toString().endsWith(".dat")).toList();
+        }
+        Counters counters = new Counters();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> migrateFile(file, isOnline, dryRun, counters)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            counters.errors.add("Interrupted");
+        } catch (Exception ex) {
+            counters.errors.add(ex.toString());
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Report(counters.files.get(), counters.filesChanged.get(),
+                counters.itemsConverted.get(), counters.itemsSkipped.get(), counters.playersSkipped.get(),
+                List.copyOf(counters.errors), System.currentTimeMillis() - startTime);
+    }
+
+    private static void migrateFile(Path file, Predicate<UUID> isOnline, boolean dryRun, Counters counters) {
+        String fileName = file.getFileName().toString();
+        try {
+            UUID uuid = UUID.fromString(fileName.substring(0, fileName.length() - ".dat".length()));
+            if (isOnline.test(uuid)) {
+                counters.playersSkipped.incrementAndGet();
+                return;
+            }
+        } catch (IllegalArgumentException ignored) {
+            // not named after a player, convert anyway
+        }
+        counters.files.incrementAndGet();
+        try {
+            // the server saves the file when the player logs out, which must not be overwritten
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            Map<String, Object> root = NbtIO.readCompressed(file);
+            if (!migrateTag(root, counters))
+                return;
+            if (dryRun) {
+                counters.filesChanged.incrementAndGet();
+                return;
+            }
+            // write to a temporary file first, so that the file is never left half-written
+            Path temp = file.resolveSibling(fileName + ".tmp");
+            NbtIO.writeCompressed(root, temp);
+            // saved by the server in the meantime, don't replace it with the older data
+            BasicFileAttributes newAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!newAttributes.lastModifiedTime().equals(attributes.lastModifiedTime()) || newAttributes.size() != attributes.size()) {
+                Files.delete(temp);
+                counters.playersSkipped.incrementAndGet();
+                return;
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            counters.filesChanged.incrementAndGet();
+        } catch (Exception ex) {
+            counters.errors.add(fileName + ": " + ex);
+        }
+    }
+
+    /**
+     * Converts every beacon item in the tag and its children
+     * @return Whether the tag was modified
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean migrateTag(Object tag, Counters counters) {
+        boolean modified = false;
+        if (tag instanceof Map<?, ?> map) {
+            Map<String, Object> compound = (Map<String, Object>) map;
+            if (compound.get(BUKKIT_VALUES) instanceof Map<?, ?> bukkitValues &&
+                    bukkitValues.get(STORAGE_KEY) instanceof Map<?, ?> data) {
+                try {
+                    Map<String, Object> converted = convert((Map<String, Object>) data);
+                    if (converted != null) {
+                        ((Map<String, Object>) bukkitValues).put(STORAGE_KEY, converted);
+                        counters.itemsConverted.incrementAndGet();
+                        modified = true;
+                    }
+                } catch (RuntimeException ex) {
+                    // unpackable effects or malformed data
+                    counters.itemsSkipped.incrementAndGet();
+                }
+            }
+            for (Object child : compound.values()) {
+                modified |= migrateTag(child, counters);
+            }
+        } else if (tag instanceof NbtIO.NbtList list && (list.elementType() == NbtIO.TAG_COMPOUND || list.elementType() == NbtIO.TAG_LIST)) {
+            for (Object element : list.elements()) {
+                modified |= migrateTag(element, counters);
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Converts the data of a beacon item to the current data version
+     * @param data The data
+     * @return The converted data, or null if the data is already up-to-date or not recognized
+     * @throws IllegalArgumentException If the data contains effects that can't be packed
+     */
+    @Nullable
+    private static Map<String, Object> convert(Map<String, Object> data) {
+        Object dataVersion = data.get(DATA_VERSION_KEY);
+        Map<Integer, Integer> effects = new LinkedHashMap<>();
+        long disabledMask = 0;
+        int expReductionLevel = 0, soulboundLevel = 0, beaconatorLevel = 0, beaconatorSelectedLevel = 0;
+        String customDataVersion = MIGRATED_CUSTOM_DATA_VERSION;
+        if (dataVersion == null) {
+            if (data.get(EFFECTS_LEGACY_V1) instanceof String effectsString) { // older
+                for (String name : effectsString.split(",")) {
+                    addLegacyEffect(effects, name, 1, true);
+                }
+            } else if (data.get(LEGACY_PRIMARY) instanceof String primary) { // oldest
+                int primaryId = PackedEffects.getIdByBukkitName(primary);
+                effects.put(primaryId != -1 ? primaryId : PackedEffects.getId("minecraft:speed"), 1);
+                if (data.get(LEGACY_SECONDARY) instanceof String secondary)
+                    addLegacyEffect(effects, secondary, 1, true);
+            } else {
+                return null;
+            }
+        } else if (dataVersion.equals(2)) {
+            String effectsCombined = (String) data.get(EFFECTS_LEGACY_V2);
+            if (!effectsCombined.isEmpty()) {
+                for (String kvp : effectsCombined.split(",")) {
+                    String[] split = kvp.split(":");
+                    addLegacyEffect(effects, split[0], split.length == 1 ? 1 : Short.parseShort(split[1]), false);
+                }
+            }
+        } else if (dataVersion.equals(3) || dataVersion.equals(4)) {
+            Map<?, ?> effectsContainer = (Map<?, ?>) data.get(EFFECTS);
+            for (var entry : effectsContainer.entrySet()) {
+                int id = PackedEffects.getId((String) entry.getKey());
+                if (id == -1)
+                    throw new IllegalArgumentException("Effect " + entry.getKey() + " cannot be packed");
+                effects.put(id, (int) (Short) entry.getValue());
+            }
+            if (dataVersion.equals(4) && data.get(DISABLED_EFFECTS) instanceof Map<?, ?> disabledEffects) {
+                for (Object key : disabledEffects.keySet()) {
+                    int id = PackedEffects.getId((String) key);
+                    if (id != -1)
+                        disabledMask |= 1L << id;
+                }
+            }
+            customDataVersion = (String) data.get(CUSTOM_DATA_VERSION_KEY);
+            expReductionLevel = getInt(data, ENCHANT_EXP_REDUCTION);
+            soulboundLevel = getInt(data, ENCHANT_SOULBOUND);
+            beaconatorLevel = getInt(data, ENCHANT_BEACONATOR);
+            if (beaconatorLevel != 0)
+                beaconatorSelectedLevel = getInt(data, ENCHANT_BEACONATOR_SELECTED);
+        } else {
+            // up-to-date, or from a newer version of the plugin
+            return null;
+        }
+
+        int[] ids = new int[effects.size()], levels = new int[effects.size()];
+        int i = 0;
+        for (var entry : effects.entrySet()) {
+            ids[i] = entry.getKey();
+            levels[i] = entry.getValue();
+            i++;
+        }
+        Map<String, Object> converted = new LinkedHashMap<>();
+        converted.put(PACKED_EFFECTS, PackedEffects.pack(new PackedEffects.Unpacked(ids, levels, disabledMask,
+                expReductionLevel, soulboundLevel, beaconatorLevel, beaconatorSelectedLevel)));
+        if (data.get(ENCHANT_SOULBOUND_OWNER) instanceof long[] owner)
+            converted.put(ENCHANT_SOULBOUND_OWNER, owner);
+        if (beaconatorLevel != 0 && data.get(ENCHANT_BEACONATOR_MODE) instanceof String mode)
+            converted.put(ENCHANT_BEACONATOR_MODE, mode);
+        converted.put(DATA_VERSION_KEY, 5);
+        if (customDataVersion != null)
+            converted.put(CUSTOM_DATA_VERSION_KEY, customDataVersion);
+        return converted;
+    }
+
+    private static void addLegacyEffect(Map<Integer, Integer> effects, String name, int level, boolean stack) {
+        int id = PackedEffects.getIdByBukkitName(name);
+        if (id == -1) // also ignored when read by the plugin
+            return;
+        if (stack)
+            effects.merge(id, level, Integer::sum);
+        else
+            effects.put(id, level);
+    }
+
+    private static int getInt(Map<String, Object> data, String key) {
+        return data.get(key) instanceof Integer integer ? integer : 0;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path playerData = null;
+        boolean dryRun = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dry-run" -> dryRun = true;
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> playerData = Paths.get(args[i]);
+            }
+        }
+        if (playerData == null || !Files.isDirectory(playerData)) {
+            System.err.println("Usage: java -cp PortableBeacons.jar " + OfflineMigration.class.getName() +
+                    " <playerdata folder> [--dry-run] [--threads n]");
+            System.err.println("Make sure that the server is stopped first.");
+            System.exit(1);
+            return;
+        }
+        Report report = run(playerData, uuid -> false, dryRun, threads);
+        for (String error : report.errors) {
+            System.err.println(error);
+        }
+        System.out.println((dryRun ? "(Dry run) " : "") + report);
+    }
+}
@@ -1,8 +1,10 @@
 package com.jacky8399.portablebeacons;
 
+import com.jacky8399.portablebeacons.events.ChunkScanner;
 import com.jacky8399.portablebeacons.events.Events;
 import com.jacky8399.portablebeacons.events.ReminderOutline;
 import com.jacky8399.portablebeacons.recipes.RecipeManager;
+import com.jacky8399.portablebeacons.utils.BlockOperationQueue;
 import com.jacky8399.portablebeacons.utils.WorldGuardHelper;
 import org.bstats.bukkit.Metrics;
 import org.bukkit.Bukkit;
@@ -61,6 +63,7 @@ public final class PortableBeacons extends JavaPlugin {
     public void reloadConfig() {
         super.reloadConfig();
         Config.loadConfig();
+        ChunkScanner.updateRegistration(this);
         RecipeManager.loadRecipes();
     }
 
@@ -79,6 +82,8 @@ public final class PortableBeacons extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        ItemMigration.cleanUp();
+        BlockOperationQueue.cleanUp();
         ReminderOutline.cleanUp();
         RecipeManager.cleanUp();
     }
@@ -0,0 +1,185 @@
+package com.jacky8399.portablebeacons.events;
+
+import com.jacky8399.portablebeacons.utils.BlockPositionSet;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Beacon;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.*;
+
+/**
+ * An index of beacon blocks in loaded chunks, so that nearby beacons can be found without
+ * going through every tile entity in every chunk.
+ * <p>
+ * Chunks are indexed when they are loaded, and kept up to date with block events.
+ * Since blocks can be changed without events, results are always checked against the world.
+ */
+public class BeaconIndex implements Listener {
+    private static final Map<UUID, Map<Long, Set<Long>>> beacons = new HashMap<>();
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+    }
+
+    private static long blockKey(int x, int y, int z) {
+        return BlockPositionSet.pack(x, y, z);
+    }
+
+    private static Block getBlock(World world, long key) {
+        return world.getBlockAt(BlockPositionSet.unpackX(key), BlockPositionSet.unpackY(key), BlockPositionSet.unpackZ(key));
+    }
+
+    /**
+     * Indexes all loaded chunks
+     */
+    public static void indexLoadedChunks(Collection<? extends World> worlds) {
+        for (World world : worlds) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                indexChunk(chunk);
+            }
+        }
+    }
+
+    private static void indexChunk(Chunk chunk) {
+        Set<Long> blocks = null;
+        for (BlockState state : chunk.getTileEntities()) {
+            if (state instanceof Beacon) {
+                if (blocks == null)
+                    blocks = new HashSet<>();
+                blocks.add(blockKey(state.getX(), state.getY(), state.getZ()));
+            }
+        }
+        Map<Long, Set<Long>> chunks = beacons.computeIfAbsent(chunk.getWorld().getUID(), ignored -> new HashMap<>());
+        if (blocks != null)
+            chunks.put(chunkKey(chunk.getX(), chunk.getZ()), blocks);
+        else
+            chunks.remove(chunkKey(chunk.getX(), chunk.getZ()));
+    }
+
+    /**
+     * Adds a beacon block that was placed without an uncancelled {@link BlockPlaceEvent}
+     */
+    public static void addBeacon(Block block) {
+        beacons.computeIfAbsent(block.getWorld().getUID(), ignored -> new HashMap<>())
+                .computeIfAbsent(chunkKey(block.getX() >> 4, block.getZ() >> 4), ignored -> new HashSet<>())
+                .add(blockKey(block.getX(), block.getY(), block.getZ()));
+    }
+
+    private static void removeBeacon(Block block) {
+        Map<Long, Set<Long>> chunks = beacons.get(block.getWorld().getUID());
+        if (chunks == null)
+            return;
+        long chunkKey = chunkKey(block.getX() >> 4, block.getZ() >> 4);
+        Set<Long> blocks = chunks.get(chunkKey);
+        if (blocks != null && blocks.remove(blockKey(block.getX(), block.getY(), block.getZ())) && blocks.isEmpty())
+            chunks.remove(chunkKey);
+    }
+
+    /**
+     * @return Whether there might be beacon blocks in the chunk
+     */
+    public static boolean hasBeacons(World world, int chunkX, int chunkZ) {
+        Map<Long, Set<Long>> chunks = beacons.get(world.getUID());
+        if (chunks == null)
+            return false;
+        Set<Long> blocks = chunks.get(chunkKey(chunkX, chunkZ));
+        return blocks != null && !blocks.isEmpty();
+    }
+
+    /**
+     * Finds all beacon blocks within a spherical radius of the location
+     * @param location The center
+     * @param radius The radius
+     * @return The beacon blocks
+     */
+    public static List<Block> findBeacons(Location location, double radius) {
+        World world = location.getWorld();
+        Map<Long, Set<Long>> chunks = world != null ? beacons.get(world.getUID()) : null;
+        if (chunks == null || chunks.isEmpty())
+            return List.of();
+        double radiusSquared = radius * radius;
+        int r = (int) Math.ceil(radius);
+        int x = location.getBlockX(), z = location.getBlockZ();
+        List<Block> blocks = new ArrayList<>();
+        for (int i = Math.floorDiv(x - r, 16), maxX = Math.floorDiv(x + r, 16); i <= maxX; i++) {
+            for (int j = Math.floorDiv(z - r, 16), maxZ = Math.floorDiv(z + r, 16); j <= maxZ; j++) {
+                Set<Long> chunkBeacons = chunks.get(chunkKey(i, j));
+                if (chunkBeacons == null)
+                    continue;
+                for (var iterator = chunkBeacons.iterator(); iterator.hasNext(); ) {
+                    Block block = getBlock(world, iterator.next());
+                    if (block.getType() != Material.BEACON) { // changed without an event
+                        iterator.remove();
+                        continue;
+                    }
+                    double dx = block.getX() - location.getX(), dy = block.getY() - location.getY(),
+                            dz = block.getZ() - location.getZ();
+                    if (dx * dx + dy * dy + dz * dz <= radiusSquared)
+                        blocks.add(block);
+                }
+            }
+        }
+        return blocks;
+    }
+
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent e) {
+        if (!e.isNewChunk())
+            indexChunk(e.getChunk());
+    }
+
+    @EventHandler
+    public void onChunkUnload(ChunkUnloadEvent e) {
+        Chunk chunk = e.getChunk();
+        Map<Long, Set<Long>> chunks = beacons.get(chunk.getWorld().getUID());
+        if (chunks != null)
+            chunks.remove(chunkKey(chunk.getX(), chunk.getZ()));
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent e) {
+        beacons.remove(e.getWorld().getUID());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockPlace(BlockPlaceEvent e) {
+        if (e.getBlockPlaced().getType() == Material.BEACON)
+            addBeacon(e.getBlockPlaced());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockBreak(BlockBreakEvent e) {
+        if (e.getBlock().getType() == Material.BEACON)
+            removeBeacon(e.getBlock());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockExplode(BlockExplodeEvent e) {
+        for (Block block : e.blockList()) {
+            if (block.getType() == Material.BEACON)
+                removeBeacon(block);
+        }
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onEntityExplode(EntityExplodeEvent e) {
+        for (Block block : e.blockList()) {
+            if (block.getType() == Material.BEACON)
+                removeBeacon(block);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.jacky8399.portablebeacons.events;
+
+import com.jacky8399.portablebeacons.BeaconEffects;
+import com.jacky8399.portablebeacons.Config;
+import com.jacky8399.portablebeacons.PortableBeacons;
+import com.jacky8399.portablebeacons.utils.ItemUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Container;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Item;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Updates obsolete beacon items in containers and dropped items when their chunk is loaded.
+ * <p>
+ * Beacon items are copied on the main thread, decoded on another thread, and updated back on the main thread
+ * if they haven't changed in the meantime.
+ * Chunks are marked once scanned, so that they are only scanned again when the items need to be updated again.
+ */
+public class ChunkScanner implements Listener {
+    private static final NamespacedKey
+            SCANNED_BLOCKS = new NamespacedKey(PortableBeacons.INSTANCE, "scanned_blocks"),
+            SCANNED_ENTITIES = new NamespacedKey(PortableBeacons.INSTANCE, "scanned_entities");
+
+    @Nullable
+    private static ChunkScanner instance;
+
+    /**
+     * Registers or unregisters the scanner, depending on whether {@link Config#performanceChunkScan} is enabled
+     */
+    public static void updateRegistration(PortableBeacons plugin) {
+        if (Config.performanceChunkScan && instance == null) {
+            instance = new ChunkScanner(plugin);
+            Bukkit.getPluginManager().registerEvents(instance, plugin);
+        } else if (!Config.performanceChunkScan && instance != null) {
+            HandlerList.unregisterAll(instance);
+            instance.task.cancel();
+            instance = null;
+        }
+    }
+
+    private final BukkitTask task;
+
+    private ChunkScanner(PortableBeacons plugin) {
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 0, 1);
+    }
+
+    private record ChunkRef(UUID world, int x, int z, boolean entities) {
+        @Nullable
+        Chunk getChunk() {
+            World world = Bukkit.getWorld(this.world);
+            return world != null && world.isChunkLoaded(x, z) ? world.getChunkAt(x, z) : null;
+        }
+    }
+
+    /**
+     * A copy of a beacon item in a container slot or an item entity
+     */
+    private record Candidate(@Nullable Inventory inventory, int slot, @Nullable Item entity, ItemStack stack) {
+        @Nullable
+        ItemStack getCurrent() {
+            if (entity != null)
+                return entity.isValid() ? entity.getItemStack() : null;
+            return inventory.getItem(slot);
+        }
+
+        void setCurrent(ItemStack stack) {
+            if (entity != null)
+                entity.setItemStack(stack);
+            else
+                inventory.setItem(slot, stack);
+        }
+    }
+
+    private record Update(Candidate candidate, BeaconEffects effects) {}
+    private record ScanResult(ChunkRef chunk, String marker, List<Update> updates) {}
+
+    private final ArrayDeque<ChunkRef> pendingChunks = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<ScanResult> results = new ConcurrentLinkedQueue<>();
+    @Nullable
+    private ScanResult currentResult;
+    private int currentIndex;
+
+    /**
+     * The marker of chunks that don't need to be scanned again
+     */
+    private static String getMarker() {
+        return BeaconEffects.DATA_VERSION + "/" + Config.itemCustomVersion;
+    }
+
+    private static boolean isScanned(Chunk chunk, NamespacedKey key) {
+        return getMarker().equals(chunk.getPersistentDataContainer().get(key, PersistentDataType.STRING));
+    }
+
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent e) {
+        if (e.isNewChunk())
+            return;
+        Chunk chunk = e.getChunk();
+        if (!isScanned(chunk, SCANNED_BLOCKS))
+            pendingChunks.add(new ChunkRef(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ(), false));
+    }
+
+    // entities are loaded separately from chunks
+    @EventHandler
+    public void onEntitiesLoad(EntitiesLoadEvent e) {
+        Chunk chunk = e.getChunk();
+        if (!isScanned(chunk, SCANNED_ENTITIES))
+            pendingChunks.add(new ChunkRef(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ(), true));
+    }
+
+    private void tick() {
+        if (pendingChunks.isEmpty() && currentResult == null && results.isEmpty())
+            return;
+        long deadline = System.nanoTime() + (long) (Config.performanceMigrationBudget * 1_000_000);
+        do {
+            if (!applyUpdate() && !scanChunk())
+                return;
+        } while (System.nanoTime() < deadline);
+    }
+
+    private boolean scanChunk() {
+        ChunkRef ref = pendingChunks.poll();
+        if (ref == null)
+            return false;
+        Chunk chunk = ref.getChunk();
+        if (chunk == null)
+            return true;
+        List<Candidate> candidates = new ArrayList<>();
+        if (ref.entities) {
+            for (Entity entity : chunk.getEntities()) {
+                if (entity instanceof Item item && item.getItemStack().getType() == Material.BEACON)
+                    candidates.add(new Candidate(null, 0, item, item.getItemStack().clone()));
+            }
+        } else {
+            for (BlockState state : chunk.getTileEntities()) {
+                if (!(state instanceof Container container))
+                    continue;
+                // only look at one half of double chests
+                Inventory inventory = state instanceof Chest chest ? chest.getBlockInventory() : container.getInventory();
+                ItemStack[] contents = inventory.getContents();
+                for (int i = 0; i < contents.length; i++) {
+                    ItemStack stack = contents[i];
+                    if (stack != null && stack.getType() == Material.BEACON)
+                        candidates.add(new Candidate(inventory, i, null, stack.clone()));
+                }
+            }
+        }
+        String marker = getMarker();
+        if (candidates.isEmpty()) {
+            markScanned(chunk, ref, marker);
+            return true;
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(PortableBeacons.INSTANCE, () -> {
+            List<Update> updates = new ArrayList<>();
+            for (Candidate candidate : candidates) {
+                BeaconEffects effects = ItemUtils.getEffects(candidate.stack);
+                if (effects != null && effects.shouldUpdate())
+                    updates.add(new Update(candidate, effects));
+            }
+            results.add(new ScanResult(ref, marker, updates));
+        });
+        return true;
+    }
+
+    private boolean applyUpdate() {
+        if (currentResult == null) {
+            currentResult = results.poll();
+            currentIndex = 0;
+            if (currentResult == null)
+                return false;
+        }
+        ScanResult result = currentResult;
+        Chunk chunk = result.chunk.getChunk();
+        if (chunk == null) {
+            // unloaded in the meantime, scan again next time
+            currentResult = null;
+            return true;
+        }
+        if (currentIndex == result.updates.size()) {
+            markScanned(chunk, result.chunk, result.marker);
+            currentResult = null;
+            return true;
+        }
+        Update update = result.updates.get(currentIndex++);
+        Candidate candidate = update.candidate;
+        ItemStack current = candidate.getCurrent();
+        // only update the item if it is still there
+        if (current != null && current.isSimilar(candidate.stack)) {
+            ItemStack updated = ItemUtils.updateItem(null, update.effects, current);
+            if (updated != null)
+                candidate.setCurrent(updated);
+        }
+        return true;
+    }
+
+    private static void markScanned(Chunk chunk, ChunkRef ref, String marker) {
+        chunk.getPersistentDataContainer().set(ref.entities ? SCANNED_ENTITIES : SCANNED_BLOCKS, PersistentDataType.STRING, marker);
+    }
+}
@@ -6,8 +6,12 @@ import com.jacky8399.portablebeacons.PortableBeacons;
 import com.jacky8399.portablebeacons.inventory.InventoryTogglePotion;
 import com.jacky8399.portablebeacons.utils.BeaconPyramid;
 import com.jacky8399.portablebeacons.utils.BeaconUtils;
+import com.jacky8399.portablebeacons.utils.BlockOperationQueue;
+import com.jacky8399.portablebeacons.utils.BlockPositionSet;
 import com.jacky8399.portablebeacons.utils.ItemUtils;
 import com.jacky8399.portablebeacons.utils.PotionEffectUtils;
+import com.jacky8399.portablebeacons.utils.ProtectionCheck;
+import com.jacky8399.portablebeacons.utils.WorldGuardHelper;
 import org.bukkit.*;
 import org.bukkit.block.Beacon;
 import org.bukkit.block.Block;
@@ -44,86 +48,164 @@ public final class Events implements Listener {
     public static void registerEvents() {
         PortableBeacons plugin = PortableBeacons.INSTANCE;
         Bukkit.getPluginManager().registerEvents(new Events(plugin), plugin);
+        Bukkit.getPluginManager().registerEvents(new BeaconIndex(), plugin);
+        BeaconIndex.indexLoadedChunks(Bukkit.getWorlds());
         Bukkit.getPluginManager().registerEvents(new ReminderOutline(plugin), plugin);
         Bukkit.getPluginManager().registerEvents(new RecipeEvents(), plugin);
         Bukkit.getPluginManager().registerEvents(new Inventories(), plugin);
+        if (plugin.worldGuardInstalled)
+            Bukkit.getPluginManager().registerEvents(new WorldGuardHelper.RegionCacheListener(), plugin);
     }
 
     public static Events INSTANCE;
     public Events(PortableBeacons plugin) {
         INSTANCE = this;
-        Bukkit.getScheduler().runTaskTimer(plugin, this::doItemLocationCheck, 0, 20);
     }
 
-    public void doItemLocationCheck() {
-        if (!Config.ritualEnabled)
-            return;
-        for (var iterator = ritualItems.iterator(); iterator.hasNext();) {
-            Item item = iterator.next();
-            UUID throwerUUID = item.getThrower();
-            if (throwerUUID == null) {
-                iterator.remove();
-                continue;
-            }
-            Player thrower = Bukkit.getPlayer(throwerUUID);
-            if (thrower == null || !thrower.isOnline() || item.isDead()) {
-                iterator.remove();
-                continue;
-            }
+    /**
+     * The maximum number of ticks to simulate when predicting where a ritual item lands
+     */
+    private static final int MAX_PREDICTION_TICKS = 60;
+    /**
+     * The interval between checks of ritual items resting in chunks with beacons
+     */
+    private static final int RESTING_CHECK_INTERVAL = 20;
+    /**
+     * The interval between checks of ritual items resting in chunks without indexed beacons,
+     * since beacons can be placed without events
+     */
+    private static final int IDLE_CHECK_INTERVAL = 100;
+
+    /**
+     * Predicts when the item will land on a block or in a liquid, by simulating the movement of item entities
+     * @return The number of ticks until the item lands, or {@link #MAX_PREDICTION_TICKS} if it won't land soon
+     */
+    private static int predictLandingTicks(Item item) {
+        if (item.isOnGround())
+            return 1;
+        World world = item.getWorld();
+        Location location = item.getLocation();
+        Vector velocity = item.getVelocity();
+        double x = location.getX(), y = location.getY(), z = location.getZ();
+        double vx = velocity.getX(), vy = velocity.getY(), vz = velocity.getZ();
+        for (int tick = 1; tick < MAX_PREDICTION_TICKS; tick++) {
+            vy -= 0.04;
+            x += vx;
+            y += vy;
+            z += vz;
+            vx *= 0.98;
+            vy *= 0.98;
+            vz *= 0.98;
+            int blockX = Location.locToBlock(x), blockZ = Location.locToBlock(z);
+            if (!world.isChunkLoaded(blockX >> 4, blockZ >> 4))
+                return tick;
+            Block block = world.getBlockAt(blockX, Location.locToBlock(y - 0.01), blockZ);
+            if (block.getType().isSolid() || block.isLiquid())
+                return tick;
+        }
+        return MAX_PREDICTION_TICKS;
+    }
 
-            Block blockBelow = item.getLocation().add(0, -1, 0).getBlock();
-            if (blockBelow.getType() == Material.BEACON) {
-                // check if activated
-                Beacon tileEntity = (Beacon) blockBelow.getState();
-                int tier = BeaconUtils.checkBeaconTier(tileEntity);
-                if (tier == -1) {
-                    continue;
-                }
+    public void trackRitualItem(Item item) {
+        ritualItems.add(item);
+        // check shortly after the item is expected to land
+        scheduleRitualCheck(item, predictLandingTicks(item) + 2);
+    }
 
-                Map<PotionEffectType, Integer> effects = new HashMap<>();
-                PotionEffect primary = tileEntity.getPrimaryEffect();
-                effects.put(primary.getType(), primary.getAmplifier() + 1);
-                PotionEffect secondary = tileEntity.getSecondaryEffect();
-                if (secondary != null)
-                    effects.put(secondary.getType(), secondary.getAmplifier() + 1);
-                BeaconPyramid pyramid = BeaconUtils.removeBeacon(thrower, blockBelow, tier, true);
-                if (pyramid == null) { // failed to remove beacon
-                    continue;
-                }
-                // play sound to complement block break effects
-                item.getWorld().playSound(item.getLocation(), Sound.ENTITY_GENERIC_EXPLODE, 0.5f, 1);
-
-                Player initiator = item.getThrower() != null ? Bukkit.getPlayer(item.getThrower()) : null;
-
-                ItemStack stack = ItemUtils.createStack(initiator, new BeaconEffects(effects));
-                ItemUtils.setPyramid(stack, pyramid);
-                // check split amount
-                ItemStack currentStack = item.getItemStack();
-                int newAmount = currentStack.getAmount() - Config.ritualItem.getAmount();
-                if (newAmount < 0) {
-                    continue;
-                } else if (newAmount > 0) {
-                    currentStack.setAmount(newAmount);
-                    // ConcurrentModificationException
-                    Bukkit.getScheduler().runTask(PortableBeacons.INSTANCE, () -> {
-                        Item splitItem = item.getWorld().dropItem(item.getLocation().add(0, 1, 0), currentStack);
-                        splitItem.setThrower(throwerUUID);
-                        splitItem.setVelocity(new Vector(0, 0, 0));
-                        ritualItems.add(splitItem);
-                    });
-                }
+    private void scheduleRitualCheck(Item item, long delay) {
+        Bukkit.getScheduler().runTaskLater(PortableBeacons.INSTANCE, () -> checkRitualItem(item), delay);
+    }
+
+    private void checkRitualItem(Item item) {
+        if (!ritualItems.contains(item))
+            return;
+        if (!Config.ritualEnabled) {
+            ritualItems.remove(item);
+            return;
+        }
+        UUID throwerUUID = item.getThrower();
+        Player thrower = throwerUUID != null ? Bukkit.getPlayer(throwerUUID) : null;
+        if (thrower == null || !thrower.isOnline() || !item.isValid()) {
+            ritualItems.remove(item);
+            return;
+        }
+        if (tryRitual(item, thrower)) {
+            ritualItems.remove(item);
+            return;
+        }
+        int landingTicks = item.isOnGround() ? 0 : predictLandingTicks(item);
+        // items floating in liquids or hovering in place never land, so treat them as resting
+        if (landingTicks > 1 || (landingTicks == 1 && !isFloating(item))) {
+            // still moving
+            scheduleRitualCheck(item, landingTicks + 2);
+        } else {
+            Location location = item.getLocation();
+            // might still be moved onto a beacon, or the beacon might be activated later
+            boolean hasBeacons = BeaconIndex.hasBeacons(item.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+            scheduleRitualCheck(item, hasBeacons ? RESTING_CHECK_INTERVAL : IDLE_CHECK_INTERVAL);
+        }
+    }
 
-                // replace item stack
-                item.setItemStack(stack);
-                item.setOwner(thrower.getUniqueId()); // pickup priority
-                item.setGlowing(true);
+    private static boolean isFloating(Item item) {
+        return item.getLocation().getBlock().isLiquid() || item.getVelocity().lengthSquared() < 1.0E-4;
+    }
+
+    /**
+     * Performs the ritual if the item is on an active beacon
+     * @return Whether the ritual was performed
+     */
+    private boolean tryRitual(Item item, Player thrower) {
+        UUID throwerUUID = thrower.getUniqueId();
+        Block blockBelow = item.getLocation().add(0, -1, 0).getBlock();
+        if (blockBelow.getType() == Material.BEACON) {
+            // check if activated
+            Beacon tileEntity = (Beacon) blockBelow.getState();
+            int tier = BeaconUtils.checkBeaconTier(tileEntity);
+            if (tier == -1) {
+                return false;
+            }
 
-                iterator.remove();
+            Map<PotionEffectType, Integer> effects = new HashMap<>();
+            PotionEffect primary = tileEntity.getPrimaryEffect();
+            effects.put(primary.getType(), primary.getAmplifier() + 1);
+            PotionEffect secondary = tileEntity.getSecondaryEffect();
+            if (secondary != null)
+                effects.put(secondary.getType(), secondary.getAmplifier() + 1);
+            BeaconPyramid pyramid = BeaconUtils.removeBeacon(thrower, blockBelow, tier, true);
+            if (pyramid == null) { // failed to remove beacon
+                return false;
+            }
+            // play sound to complement block break effects
+            item.getWorld().playSound(item.getLocation(), Sound.ENTITY_GENERIC_EXPLODE, 0.5f, 1);
+
+            Player initiator = item.getThrower() != null ? Bukkit.getPlayer(item.getThrower()) : null;
+
+            ItemStack stack = ItemUtils.createStack(initiator, new BeaconEffects(effects));
+            ItemUtils.setPyramid(stack, pyramid);
+            // check split amount
+            ItemStack currentStack = item.getItemStack();
+            int newAmount = currentStack.getAmount() - Config.ritualItem.getAmount();
+            if (newAmount < 0) {
+                return false;
+            } else if (newAmount > 0) {
+                currentStack.setAmount(newAmount);
+                Item splitItem = item.getWorld().dropItem(item.getLocation().add(0, 1, 0), currentStack);
+                splitItem.setThrower(throwerUUID);
+                splitItem.setVelocity(new Vector(0, 0, 0));
+                trackRitualItem(splitItem);
             }
+
+            // replace item stack
+            item.setItemStack(stack);
+            item.setOwner(thrower.getUniqueId()); // pickup priority
+            item.setGlowing(true);
+
+            return true;
         }
+        return false;
     }
 
-    public static HashSet<Location> ritualTempBlocks = new HashSet<>();
+    public static final BlockPositionSet ritualTempBlocks = new BlockPositionSet();
 
     public Set<Item> ritualItems = new LinkedHashSet<>();
     @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
@@ -132,7 +214,7 @@ public final class Events implements Listener {
             return;
         ItemStack is = e.getItemDrop().getItemStack();
         if (is.isSimilar(Config.ritualItem) && is.getAmount() >= Config.ritualItem.getAmount()) {
-            ritualItems.add(e.getItemDrop());
+            trackRitualItem(e.getItemDrop());
         }
     }
 
@@ -150,9 +232,11 @@ public final class Events implements Listener {
 
     @EventHandler
     public void onPistonExtend(BlockPistonExtendEvent e) {
+        if (ritualTempBlocks.isEmpty())
+            return;
         List<Block> blocks = e.getBlocks();
         for (Block block : blocks) {
-            if (ritualTempBlocks.contains(block.getLocation())) {
+            if (ritualTempBlocks.contains(block)) {
                 e.setCancelled(true);
                 break;
             }
@@ -161,9 +245,11 @@ public final class Events implements Listener {
 
     @EventHandler
     public void onPistonRetract(BlockPistonRetractEvent e) {
+        if (ritualTempBlocks.isEmpty())
+            return;
         List<Block> blocks = e.getBlocks();
         for (Block block : blocks) {
-            if (ritualTempBlocks.contains(block.getLocation())) {
+            if (ritualTempBlocks.contains(block)) {
                 e.setCancelled(true);
                 break;
             }
@@ -172,7 +258,7 @@ public final class Events implements Listener {
 
     @EventHandler
     public void onTempBlockBroken(BlockBreakEvent e) {
-        if (ritualTempBlocks.contains(e.getBlock().getLocation())) {
+        if (ritualTempBlocks.contains(e.getBlock())) {
             e.setCancelled(true);
         }
     }
@@ -269,7 +355,12 @@ public final class Events implements Listener {
             return;
         }
         // group by Y level to stagger creation
-        Map<Integer, List<BeaconPyramid.BeaconBase>> pyramidByLayer = new HashMap<>();
+        List<List<BlockOperationQueue.Operation>> layers = new ArrayList<>(pyramid.tier);
+        for (int i = 0; i < pyramid.tier; i++) {
+            layers.add(new ArrayList<>(BeaconUtils.getBeaconTierSize(pyramid.tier - i)));
+        }
+        var protectionCheck = new ProtectionCheck(player, beaconLocation.getRelative(-pyramid.tier, -pyramid.tier, -pyramid.tier),
+                beaconLocation.getRelative(pyramid.tier, -1, pyramid.tier));
         for (var beaconBase : pyramid.beaconBaseBlocks) {
             var blockData = beaconBase.data();
             // only place beacon base blocks!
@@ -286,55 +377,77 @@ public final class Events implements Listener {
                     );
                 return; // don't break unbreakable or blocks like obsidian
             }
-            if (!checkBlockPlaceEvent(player, hand, placedAgainst, relative, blockData)) {
+            if (!protectionCheck.test(relative, block -> checkBlockPlaceEvent(player, hand, placedAgainst, block, blockData))) {
                 if (Config.debug)
                     PortableBeacons.INSTANCE.logger.info(
                             "Placing pyramid failed for %s: cannot place beacon base at %s".formatted(player.getName(), relative)
                     );
                 return;
             }
-            // group by relative Y
-            pyramidByLayer.computeIfAbsent(beaconBase.relativeY(),
-                    relativeY -> new ArrayList<>(BeaconUtils.getBeaconTierSize(-relativeY))).add(beaconBase);
+            // group by relative Y, which is negative
+            layers.get(pyramid.tier + beaconBase.relativeY()).add(new BlockOperationQueue.Operation(relative,
+                    replacedState.getType(), blockData, beaconBase.isSurfaceBlock() ? blockData.getMaterial() : null, true));
         }
+        // place the beacon block with the top layer
+        layers.get(pyramid.tier - 1).add(new BlockOperationQueue.Operation(beaconLocation,
+                beaconLocation.getType(), Material.BEACON.createBlockData(), Material.BEACON, false));
         // then update blocks
         World world = beaconLocation.getWorld();
-        for (var layerEntry : pyramidByLayer.entrySet()) {
-            int relativeY = layerEntry.getKey();
-            var beaconBlocks = layerEntry.getValue();
-            int delay = pyramid.tier + relativeY; // key is negative
-            Bukkit.getScheduler().runTaskLater(PortableBeacons.INSTANCE, () -> {
-                for (var beaconBlock : beaconBlocks) {
-                    BlockData data = beaconBlock.data();
-                    Block relative = beaconBlock.getBlockRelativeTo(beaconLocation);
-                    Location relativeLocation = relative.getLocation();
-                    // set block
-                    relative.setBlockData(data);
-                    // try to move entities in the way
-                    world.getNearbyEntities(relativeLocation, 0.5, 0.5, 0.5, entity -> !entity.isInsideVehicle())
-                            .forEach(entity -> entity.teleport(entity.getLocation().add(0, 1, 0)));
-                    if (beaconBlock.isSurfaceBlock())
-                        world.playEffect(relativeLocation, Effect.STEP_SOUND, data.getMaterial());
-                }
-            }, delay * 4L);
+        ItemStack refund = stack.clone();
+        refund.setAmount(1);
+        // protect the blocks from being broken or moved while the pyramid is placed
+        List<Block> pyramidBlocks = new ArrayList<>();
+        for (var layer : layers) {
+            for (var operation : layer) {
+                pyramidBlocks.add(operation.block());
+                ritualTempBlocks.add(operation.block().getLocation());
+            }
         }
-        Bukkit.getScheduler().runTaskLater(PortableBeacons.INSTANCE, () -> {
-            beaconLocation.setType(Material.BEACON);
-            if (effects.getEffects().size() == 1 || effects.getEffects().size() == 2) {
-                Beacon beacon = (Beacon) beaconLocation.getState();
-                for (Map.Entry<PotionEffectType, Integer> entry : effects.getEffects().entrySet()) {
-                    if (entry.getKey().equals(PotionEffectType.REGENERATION)) {
-                        beacon.setSecondaryEffect(PotionEffectType.REGENERATION);
-                        continue;
-                    } else if (entry.getValue() == 2) {
-                        beacon.setSecondaryEffect(entry.getKey());
+        var job = new BlockOperationQueue.Job(world, true)
+                .onSuccess(() -> {
+                    pyramidBlocks.forEach(ritualTempBlocks::remove);
+                    // the place event was cancelled, so the index doesn't know about the beacon yet
+                    BeaconIndex.addBeacon(beaconLocation);
+                    if (effects.getEffects().size() == 1 || effects.getEffects().size() == 2) {
+                        Beacon beacon = (Beacon) beaconLocation.getState();
+                        for (Map.Entry<PotionEffectType, Integer> entry : effects.getEffects().entrySet()) {
+                            if (entry.getKey().equals(PotionEffectType.REGENERATION)) {
+                                beacon.setSecondaryEffect(PotionEffectType.REGENERATION);
+                                continue;
+                            } else if (entry.getValue() == 2) {
+                                beacon.setSecondaryEffect(entry.getKey());
+                            }
+                            beacon.setPrimaryEffect(entry.getKey());
+                        }
+                        beacon.update(true);
                     }
-                    beacon.setPrimaryEffect(entry.getKey());
-                }
-                beacon.update(true);
-            }
-            world.playEffect(beaconLocation.getLocation(), Effect.STEP_SOUND, Material.BEACON);
-        }, (pyramid.tier - 1) * 4L);
+                })
+                .onFailure(restored -> {
+                    pyramidBlocks.forEach(ritualTempBlocks::remove);
+                    if (Config.debug)
+                        PortableBeacons.INSTANCE.logger.info(
+                                "Placing pyramid failed for %s: blocks changed during placement".formatted(player.getName())
+                        );
+                    // the pyramid would be duplicated if some of its blocks were taken
+                    if (!restored) {
+                        PortableBeacons.INSTANCE.logger.warning(
+                                "Placing pyramid failed for %s, and not all blocks could be restored. The beacon will not be refunded."
+                                        .formatted(player.getName())
+                        );
+                        return;
+                    }
+                    // give the beacon back
+                    if (player.isOnline()) {
+                        player.getInventory().addItem(refund).values()
+                                .forEach(leftover -> world.dropItemNaturally(player.getLocation(), leftover));
+                    } else {
+                        world.dropItemNaturally(beaconLocation.getLocation(), refund);
+                    }
+                });
+        for (var layer : layers) {
+            job.addStage(layer);
+        }
+        BlockOperationQueue.submit(job);
         // needs to cancel event to prevent error in console
         stack.setAmount(stack.getAmount() - 1);
         player.getInventory().setItem(e.getHand(), stack);
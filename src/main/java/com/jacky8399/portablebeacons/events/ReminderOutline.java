@@ -6,69 +6,119 @@ import com.jacky8399.portablebeacons.utils.ItemUtils;
 import org.bukkit.*;
 import org.bukkit.block.Beacon;
 import org.bukkit.block.Block;
-import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.BlockDisplay;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.FallingBlock;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Listener;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
-import org.bukkit.util.BlockVector;
 
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 public class ReminderOutline implements Listener {
     public ReminderOutline(PortableBeacons plugin) {
         Bukkit.getScheduler().runTaskTimer(plugin, this::checkPlayerItem, 0, 40);
     }
 
-    private static final Map<Player, Map<BlockVector, FallingBlock>> reminderOutline = new LinkedHashMap<>();
+    /**
+     * Block displays and entities hidden by default were added in 1.19.4
+     */
+    private static final boolean HAS_BLOCK_DISPLAY;
+    static {
+        boolean hasBlockDisplay;
+        try {
+            Class.forName("org.bukkit.entity.BlockDisplay");
+            hasBlockDisplay = true;
+        } catch (ClassNotFoundException e) {
+            hasBlockDisplay = false;
+        }
+        HAS_BLOCK_DISPLAY = hasBlockDisplay;
+    }
+
+    private record OutlineKey(UUID world, int x, int y, int z) {
+        static OutlineKey of(Block block) {
+            return new OutlineKey(block.getWorld().getUID(), block.getX(), block.getY(), block.getZ());
+        }
+    }
+
+    /**
+     * An outline shared by all players near the beacon, and only visible to them
+     */
+    private static final class Outline {
+        private final Entity entity;
+        private final Set<Player> viewers = new HashSet<>();
+
+        private Outline(Entity entity) {
+            this.entity = entity;
+        }
+    }
+
+    private static final Map<OutlineKey, Outline> outlines = new HashMap<>();
+    /**
+     * Players who could see at least one outline in the last check
+     */
+    private static final Set<Player> viewers = new HashSet<>();
 
     private static List<Block> findBeaconInRadius(Player player, double radius) {
-        double radiusSquared = radius * radius;
-        int r = (int) Math.ceil(radius);
-        Location location = player.getLocation();
         List<Block> blocks = new ArrayList<>();
-        World world = player.getWorld();
-        int x = location.getBlockX(), z = location.getBlockZ();
-        for (int i = Math.floorDiv(x - r, 16), maxX = Math.floorDiv(x + r, 16); i <= maxX; i++) {
-            for (int j = Math.floorDiv(z - r, 16), maxZ = Math.floorDiv(z + r, 16); j <= maxZ; j++) {
-                Chunk chunk = world.getChunkAt(i, j);
-                if (!chunk.isLoaded())
-                    continue;
-                for (var tileEntity : chunk.getTileEntities()) {
-                    if (!(tileEntity instanceof Beacon beacon))
-                        continue;
-                    if (beacon.getPrimaryEffect() != null && beacon.getLocation().distanceSquared(location) <= radiusSquared) {
-                        blocks.add(beacon.getBlock());
-                    }
-                }
-            }
+        for (Block block : BeaconIndex.findBeacons(player.getLocation(), radius)) {
+            if (block.getState() instanceof Beacon beacon && beacon.getPrimaryEffect() != null)
+                blocks.add(block);
         }
         return blocks;
     }
 
-    private static FallingBlock spawnFallingBlock(BlockData data, Location location) {
-        World world = location.getWorld();
-        Location initialLoc = location.clone();
+    private static Entity spawnOutline(Block block) {
+        if (HAS_BLOCK_DISPLAY)
+            return BlockDisplayOutline.spawn(block);
+        return spawnFallingBlock(block);
+    }
+
+    // in a separate class so that BlockDisplay is only loaded if it exists
+    private static final class BlockDisplayOutline {
+        static Entity spawn(Block block) {
+            return block.getWorld().spawn(block.getLocation(), BlockDisplay.class, display -> {
+                // only shown to players near the beacon
+                display.setVisibleByDefault(false);
+                display.setPersistent(false);
+                display.setBlock(block.getBlockData());
+                display.setGlowing(true);
+            });
+        }
+    }
+
+    // falling block doesn't render if it is in a block of the same type
+    private static Location getFallingBlockLocation(Block block) {
+        return block.getLocation().add(0.5, -0.01, 0.5);
+    }
+
+    private static FallingBlock spawnFallingBlock(Block block) {
+        World world = block.getWorld();
+        Location initialLoc = getFallingBlockLocation(block);
         initialLoc.setY(world.getMaxHeight() - 1);
-        FallingBlock ent = world.spawnFallingBlock(initialLoc, data);
+        FallingBlock ent = world.spawnFallingBlock(initialLoc, block.getBlockData());
         ent.setInvulnerable(true);
         ent.setGlowing(true);
         ent.setDropItem(false);
         ent.setGravity(false);
+        ent.setPersistent(false);
         ent.setTicksLived(1);
-//        ent.teleport(location);
+        ent.teleport(getFallingBlockLocation(block));
         return ent;
     }
 
-    private void removeOutlines(Player player) {
-        Map<BlockVector, FallingBlock> entities = reminderOutline.remove(player);
-        if (entities != null)
-            entities.values().forEach(Entity::remove);
+    /**
+     * Keeps the falling block alive, and hides it from players who aren't near the beacon,
+     * since it is visible to everyone by default
+     */
+    private static void refreshFallingBlock(Outline outline, Block block) {
+        outline.entity.setTicksLived(1);
+        outline.entity.teleport(getFallingBlockLocation(block));
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            if (!outline.viewers.contains(player))
+                player.hideEntity(PortableBeacons.INSTANCE, outline.entity);
+        }
     }
 
     public void checkPlayerItem() {
@@ -78,6 +128,8 @@ public class ReminderOutline implements Listener {
         }
         ItemStack ritualItem = Config.ritualItem;
         boolean shouldCheckBeacon = Config.creationReminderDisableIfOwned;
+        Map<OutlineKey, List<Player>> newViewers = new HashMap<>();
+        Map<OutlineKey, Block> blocks = new HashMap<>();
         player:
         for (Player player : Bukkit.getOnlinePlayers()) {
             int ritualItemAmount = 0;
@@ -86,7 +138,6 @@ public class ReminderOutline implements Listener {
             for (ItemStack stack : inventory.getStorageContents()) {
                 // check if already own beacon item
                 if (shouldCheckBeacon && ItemUtils.isPortableBeacon(stack)) {
-                    removeOutlines(player);
                     continue player;
                 } else if (ritualItem.isSimilar(stack)) {
                     ritualItemAmount += stack.getAmount();
@@ -95,79 +146,70 @@ public class ReminderOutline implements Listener {
             // of course getStorageContents() doesn't include offhand
             ItemStack offhand = inventory.getItemInOffHand();
             if (shouldCheckBeacon && ItemUtils.isPortableBeacon(offhand)) {
-                removeOutlines(player);
                 continue;
             } else if (ritualItem.isSimilar(offhand)) {
                 ritualItemAmount += offhand.getAmount();
             }
 
-            if (ritualItemAmount < ritualItem.getAmount()) {
-                removeOutlines(player);
+            if (ritualItemAmount < ritualItem.getAmount())
                 continue;
-            }
 
             List<Block> nearbyBeacons = findBeaconInRadius(player, Config.creationReminderRadius);
-            if (nearbyBeacons.size() == 0) {
-                removeOutlines(player);
+            if (nearbyBeacons.size() == 0)
                 continue;
-            }
-            Map<BlockVector, FallingBlock> entities = null;
             for (Block beacon : nearbyBeacons) {
-                var vector = new BlockVector(beacon.getX(), beacon.getY(), beacon.getZ());
-                // falling block doesn't render if it is in a block of the same type
-                Location location = beacon.getLocation().add(0.5, -0.01, 0.5);
-                // spawn falling block if none already spawned
-                if (entities == null)
-                    entities = reminderOutline.computeIfAbsent(player, ignored -> new LinkedHashMap<>());
-                boolean showReminderMessage = entities.size() == 0 && !Config.creationReminderMessage.isEmpty();
-                entities.computeIfAbsent(vector, ignored -> {
-                    if (showReminderMessage) // if first outline for player
-                        player.sendMessage(Config.creationReminderMessage);
-                    var fallingBlock = spawnFallingBlock(beacon.getBlockData(), location);
-                    // hide from other players
-                    for (var otherPlayer : Bukkit.getOnlinePlayers()) {
-                        if (otherPlayer != player)
-                            otherPlayer.hideEntity(PortableBeacons.INSTANCE, fallingBlock);
-                    }
-                    return fallingBlock;
-                }).teleport(location);
+                OutlineKey key = OutlineKey.of(beacon);
+                blocks.putIfAbsent(key, beacon);
+                newViewers.computeIfAbsent(key, ignored -> new ArrayList<>()).add(player);
                 // display particles
                 player.spawnParticle(Particle.END_ROD, beacon.getLocation().add(0.5, 1.5, 0.5), 20, 0, 0.5, 0, 0.4);
             }
+            // if first outline for player
+            if (!viewers.contains(player) && !Config.creationReminderMessage.isEmpty())
+                player.sendMessage(Config.creationReminderMessage);
             player.setCooldown(Config.ritualItem.getType(), 20);
         }
-        // validate old entries
-        for (var iterator = reminderOutline.entrySet().iterator(); iterator.hasNext();) {
+
+        // remove outlines that no one can see anymore
+        for (var iterator = outlines.entrySet().iterator(); iterator.hasNext();) {
             var entry = iterator.next();
-            Player player = entry.getKey();
-            Map<BlockVector, FallingBlock> entities = entry.getValue();
-            if (!player.isOnline() || !player.isValid()) {
-                entities.values().forEach(Entity::remove);
+            if (!newViewers.containsKey(entry.getKey())) {
+                entry.getValue().entity.remove();
                 iterator.remove();
-            } else {
-                for (var entityIterator = entities.values().iterator(); entityIterator.hasNext();) {
-                    var block = entityIterator.next();
-                    if (!block.isValid()) {
-                        entityIterator.remove();
-                        continue;
-                    } else if (block.getLocation().add(0, 0.1, 0).getBlock().getType() != Material.BEACON) {
-                        entityIterator.remove();
-                        block.remove();
-                        continue;
-                    }
-                    block.setTicksLived(1);
-                    for (Player other : Bukkit.getOnlinePlayers())
-                        if (other != player)
-                            other.hideEntity(PortableBeacons.INSTANCE, block);
+            }
+        }
+        viewers.clear();
+        for (var entry : newViewers.entrySet()) {
+            OutlineKey key = entry.getKey();
+            Outline outline = outlines.get(key);
+            if (outline == null || !outline.entity.isValid()) {
+                if (outline != null)
+                    outline.entity.remove();
+                outline = new Outline(spawnOutline(blocks.get(key)));
+                outlines.put(key, outline);
+            }
+            // only update the visibility of players who started or stopped seeing the outline
+            Set<Player> oldViewers = new HashSet<>(outline.viewers);
+            for (Player player : entry.getValue()) {
+                if (!oldViewers.remove(player)) {
+                    player.showEntity(PortableBeacons.INSTANCE, outline.entity);
+                    outline.viewers.add(player);
                 }
-                if (entities.size() == 0)
-                    iterator.remove();
             }
+            for (Player player : oldViewers) {
+                if (player.isOnline())
+                    player.hideEntity(PortableBeacons.INSTANCE, outline.entity);
+                outline.viewers.remove(player);
+            }
+            if (!HAS_BLOCK_DISPLAY)
+                refreshFallingBlock(outline, blocks.get(key));
+            viewers.addAll(outline.viewers);
         }
     }
 
     public static void cleanUp() {
-        reminderOutline.values().forEach(ents -> ents.values().forEach(Entity::remove));
-        reminderOutline.clear();
+        outlines.values().forEach(outline -> outline.entity.remove());
+        outlines.clear();
+        viewers.clear();
     }
 }
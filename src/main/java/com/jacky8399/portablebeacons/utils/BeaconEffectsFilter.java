@@ -5,6 +5,7 @@ import org.bukkit.potion.PotionEffectType;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiPredicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -40,6 +41,27 @@ public record BeaconEffectsFilter(PotionEffectType type,
         throw new IllegalArgumentException("Invalid format " + input);
     }
 
+    private static final int MAX_INTERNED = 1024;
+    private static final Map<String, BeaconEffectsFilter> INTERNED = new ConcurrentHashMap<>();
+
+    /**
+     * Parses the input like {@link #fromString(String)}, but reuses the filter if the same input was parsed before.
+     * Meant for inputs that are parsed repeatedly, like WorldGuard flag values.
+     * @param input The input
+     * @return The filter
+     * @throws IllegalArgumentException If the input is invalid
+     */
+    public static BeaconEffectsFilter intern(String input) {
+        BeaconEffectsFilter filter = INTERNED.get(input);
+        if (filter != null)
+            return filter;
+        filter = fromString(input);
+        if (INTERNED.size() >= MAX_INTERNED)
+            INTERNED.clear();
+        INTERNED.put(input, filter);
+        return filter;
+    }
+
     @Override
     public String toString() {
         return PotionEffectUtils.getName(type) + (operator != null ? operator.operator + constraint : "");
@@ -54,7 +76,15 @@ public record BeaconEffectsFilter(PotionEffectType type,
         Integer val = map.get(type);
         if (val == null)
             return false;
-        return operator == null || operator.predicate.test(val, constraint);
+        return testLevel(val);
+    }
+
+    /**
+     * @param level The level of an effect of the same type
+     * @return Whether the level satisfies the constraint
+     */
+    public boolean testLevel(int level) {
+        return operator == null || operator.predicate.test(level, constraint);
     }
 
     public enum Operator {
@@ -86,7 +86,7 @@ public final class BeaconPyramid {
         public static NamespacedKey STORAGE_KEY = key("beacon_pyramid");
         public static BeaconPyramidDataType STORAGE_TYPE = new BeaconPyramidDataType();
 
-        public static final int DATA_VERSION = 1;
+        public static final int DATA_VERSION = 2;
 
         public static final NamespacedKey TIER = key("tier"), DATA_VERSION_KEY = key("data_version");
         @NotNull
@@ -104,11 +104,60 @@ public final class BeaconPyramid {
         // PersistentDataContainer keys
 
         static final NamespacedKey MAJORITY = key("majority"), BLOCKS = key("blocks"),
-                BLOCK = key("block"), LOCATIONS = key("locations"), Y_OFFSET = key("y"), LAYERS = key("layers");
+                BLOCK = key("block"), LOCATIONS = key("locations"), Y_OFFSET = key("y"), LAYERS = key("layers"),
+                PALETTE = key("palette"), INDICES = key("indices");
 
+        /**
+         * Serialize the pyramid as a palette and the palette index of every block:
+         * {@code {
+         *   tier: 4,
+         *   palette: [{block: "minecraft:iron_block"}, {block: "minecraft:gold_block"}, ...],
+         *   indices: [...]
+         * }}
+         * The indices are packed in the order of layers from the top, then X, then Z,
+         * using as few bits as possible. They are omitted if the palette only has one block.
+         */
         @NotNull
         @Override
         public PersistentDataContainer toPrimitive(@NotNull BeaconPyramid complex, @NotNull PersistentDataAdapterContext context) {
+            int tier = complex.tier;
+            BlockData[] blocks = new BlockData[BeaconUtils.getBeaconSize(tier)];
+            for (BeaconBase beaconBase : complex.beaconBaseBlocks) {
+                int layer = -beaconBase.relativeY;
+                if (layer < 1 || layer > tier || Math.abs(beaconBase.relativeX) > layer || Math.abs(beaconBase.relativeZ) > layer)
+                    return toPrimitiveV1(complex, context);
+                int side = layer * 2 + 1;
+                blocks[BeaconUtils.getBeaconSize(layer - 1) + (beaconBase.relativeX + layer) * side + beaconBase.relativeZ + layer] = beaconBase.data;
+            }
+            Map<BlockData, Integer> paletteIndices = new HashMap<>();
+            List<BlockData> palette = new ArrayList<>();
+            int[] indices = new int[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                if (blocks[i] == null) // incomplete pyramid
+                    return toPrimitiveV1(complex, context);
+                indices[i] = paletteIndices.computeIfAbsent(blocks[i], data -> {
+                    palette.add(data);
+                    return palette.size() - 1;
+                });
+            }
+
+            PersistentDataContainer container = context.newPersistentDataContainer();
+            container.set(TIER, BYTE, (byte) tier);
+            PersistentDataContainer[] paletteTags = new PersistentDataContainer[palette.size()];
+            for (int i = 0; i < paletteTags.length; i++) {
+                paletteTags[i] = context.newPersistentDataContainer();
+                paletteTags[i].set(BLOCK, STRING, palette.get(i).getAsString());
+            }
+            container.set(PALETTE, TAG_CONTAINER_ARRAY, paletteTags);
+            int bits = PackedIndices.getBitsPerValue(palette.size());
+            if (bits != 0)
+                container.set(INDICES, BYTE_ARRAY, PackedIndices.pack(indices, bits));
+            container.set(DATA_VERSION_KEY, INTEGER, DATA_VERSION);
+            return container;
+        }
+
+        // only used for pyramids that don't fill every layer, which can't be stored in a palette
+        private static PersistentDataContainer toPrimitiveV1(BeaconPyramid complex, PersistentDataAdapterContext context) {
             PersistentDataContainer container = context.newPersistentDataContainer();
 
             container.set(TIER, BYTE, (byte) complex.tier);
@@ -124,7 +173,7 @@ public final class BeaconPyramid {
             var tags = serializeOutliers(context, blockToLayers);
             if (tags.length != 0)
                 container.set(BLOCKS, TAG_CONTAINER_ARRAY, tags);
-            container.set(DATA_VERSION_KEY, INTEGER, DATA_VERSION);
+            container.set(DATA_VERSION_KEY, INTEGER, 1);
 
             return container;
         }
@@ -134,7 +183,37 @@ public final class BeaconPyramid {
         @Override
         public BeaconPyramid fromPrimitive(@NotNull PersistentDataContainer primitive, @NotNull PersistentDataAdapterContext context) {
             int dataVersion = primitive.get(DATA_VERSION_KEY, INTEGER);
-            if (dataVersion == 1) {
+            if (dataVersion == 2) {
+                int tier = primitive.get(TIER, BYTE);
+                if (tier > 4 || tier < 1) {
+                    throw new IllegalStateException(tier + " is not a valid tier");
+                }
+                PersistentDataContainer[] paletteTags = primitive.get(PALETTE, TAG_CONTAINER_ARRAY);
+                if (paletteTags.length == 0) {
+                    throw new IllegalStateException("Palette is empty");
+                }
+                BlockData[] palette = new BlockData[paletteTags.length];
+                for (int i = 0; i < palette.length; i++) {
+                    palette[i] = Bukkit.createBlockData(paletteTags[i].get(BLOCK, STRING));
+                }
+                int size = BeaconUtils.getBeaconSize(tier);
+                int bits = PackedIndices.getBitsPerValue(palette.length);
+                int[] indices = bits == 0 ? new int[size] : PackedIndices.unpack(primitive.get(INDICES, BYTE_ARRAY), size, bits);
+                List<BeaconBase> beaconBase = new ArrayList<>(size);
+                int i = 0;
+                for (int currentTier = 1; currentTier <= tier; currentTier++) {
+                    for (int x = -currentTier; x <= currentTier; x++) {
+                        for (int z = -currentTier; z <= currentTier; z++) {
+                            int index = indices[i++];
+                            if (index >= palette.length) {
+                                throw new IllegalStateException(index + " is not in the palette");
+                            }
+                            beaconBase.add(new BeaconBase(palette[index], x, -currentTier, z));
+                        }
+                    }
+                }
+                return new BeaconPyramid(tier, beaconBase);
+            } else if (dataVersion == 1) {
                 int tier = primitive.get(TIER, BYTE);
                 if (tier > 4 || tier < 1) {
                     throw new IllegalStateException(tier + " is not a valid tier");
@@ -175,7 +254,6 @@ public final class BeaconPyramid {
             throw new UnsupportedOperationException("Data version " + dataVersion + " is unsupported");
         }
 
-
         /**
          * Serialize outliers into NBT:
          * {@code [
@@ -1,6 +1,5 @@
 package com.jacky8399.portablebeacons.utils;
 
-import com.jacky8399.portablebeacons.PortableBeacons;
 import com.jacky8399.portablebeacons.events.Events;
 import org.bukkit.*;
 import org.bukkit.block.Beacon;
@@ -13,6 +12,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 public class BeaconUtils {
     public static int checkBeaconTier(Beacon tileEntity) {
@@ -45,7 +45,7 @@ public class BeaconUtils {
     public static int getBeaconSize(int tier) {
         int result = 0;
         for (int i = 1; i <= tier; i++) {
-            result += getBeaconTierSize(tier);
+            result += getBeaconTierSize(i);
         }
         return result;
     }
@@ -85,6 +85,8 @@ public class BeaconUtils {
         }
 
         var beaconBase = new ArrayList<BeaconPyramid.BeaconBase>(getBeaconSize(tier));
+        var protectionCheck = new ProtectionCheck(player, beaconBlock.getRelative(-tier, -tier, -tier), beaconBlock.getRelative(tier, -1, tier));
+        Predicate<Block> canBreak = block -> !checkBlockEventFail(player, block);
         for (int currentTier = 1; currentTier <= tier; currentTier++) {
             var blocks = new ArrayList<BlockToBreak>(getBeaconTierSize(currentTier));
 
@@ -94,7 +96,7 @@ public class BeaconUtils {
                     // validate block
                     if (!Tag.BEACON_BASE_BLOCKS.isTagged(offset.getType()))
                         return null;
-                    else if (checkBlockEventFail(player, offset))
+                    else if (!protectionCheck.test(offset, canBreak))
                         return null;
                     var beaconBaseBlock = new BeaconPyramid.BeaconBase(offset.getBlockData(), x, -currentTier, z);
                     beaconBase.add(beaconBaseBlock);
@@ -105,24 +107,30 @@ public class BeaconUtils {
             blocksToBreak.add(blocks);
         }
         World world = beaconBlock.getWorld();
-        BlockData glass = Material.GLASS.createBlockData();
-        for (int i = 0; i < blocksToBreak.size(); i++) {
-            var blocks = blocksToBreak.get(i);
+        BlockData glass = Material.GLASS.createBlockData(), air = Material.AIR.createBlockData();
+        // the pyramid is already taken, so there is nothing to roll back to
+        var job = new BlockOperationQueue.Job(world, false)
+                .onApplied(Events.ritualTempBlocks::remove);
+        // start breaking blocks after a delay, like the placement of the other layers
+        job.addStage(List.of());
+        for (var blocks : blocksToBreak) {
+            var operations = new ArrayList<BlockOperationQueue.Operation>(blocks.size());
             for (var block : blocks) {
                 world.setBlockData(block.location, glass); // to prevent duping
                 Events.ritualTempBlocks.add(block.location);
+                operations.add(new BlockOperationQueue.Operation(block.location.getBlock(), Material.GLASS, air, block.effect, false));
             }
-            // don't break that many blocks at once
-            Bukkit.getScheduler().runTaskLater(PortableBeacons.INSTANCE, () -> {
+            job.addStage(operations);
+        }
+        // blocks changed by others in the meantime are skipped, and are no longer protected
+        job.onSuccess(() -> {
+            for (var blocks : blocksToBreak) {
                 for (var block : blocks) {
-                    Location location = block.location;
-                    if (block.effect != null)
-                        world.playEffect(location, Effect.STEP_SOUND, block.effect);
-                    world.setType(location, Material.AIR);
-                    Events.ritualTempBlocks.remove(location);
+                    Events.ritualTempBlocks.remove(block.location);
                 }
-            }, (i + 1) * 4L);
-        }
+            }
+        });
+        BlockOperationQueue.submit(job);
         return new BeaconPyramid(tier, beaconBase);
     }
 }
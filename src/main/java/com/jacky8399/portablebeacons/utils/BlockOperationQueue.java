@@ -0,0 +1,282 @@
+package com.jacky8399.portablebeacons.utils;
+
+import com.jacky8399.portablebeacons.Config;
+import com.jacky8399.portablebeacons.PortableBeacons;
+import org.bukkit.Bukkit;
+import org.bukkit.Effect;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Entity;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A shared queue of block changes made when placing and removing pyramids,
+ * so that concurrent placements don't all change their blocks in the same tick.
+ * <p>
+ * Jobs are split into stages (usually the layers of a pyramid), which are started in order
+ * at least {@link #STAGE_INTERVAL} ticks apart.
+ * Jobs take turns changing blocks, one chunk section at a time,
+ * up to {@link Config#performanceBlocksPerTick} blocks per tick in total.
+ */
+public final class BlockOperationQueue {
+    public static final int STAGE_INTERVAL = 4;
+
+    /**
+     * A block change
+     * @param block The block to change
+     * @param expected The type the block must have when it is changed
+     * @param data The new block data
+     * @param effect The material of the block breaking effect to play, or null to not play an effect
+     * @param moveEntities Whether to move entities in the way up
+     */
+    public record Operation(Block block, Material expected, BlockData data, @Nullable Material effect, boolean moveEntities) {
+        long sectionKey() {
+            return BlockPositionSet.pack(block.getX() >> 4, block.getY() >> 4, block.getZ() >> 4);
+        }
+    }
+
+    public static final class Job {
+        private final World world;
+        private final boolean rollbackOnFailure;
+        private final List<List<Operation>> stages = new ArrayList<>();
+        @Nullable
+        private Consumer<Block> onApplied;
+        @Nullable
+        private Runnable onSuccess;
+        @Nullable
+        private Consumer<Boolean> onFailure;
+
+        private int stage, index;
+        private long nextStageTick;
+        // for rollback
+        private final List<Operation> applied = new ArrayList<>();
+        private final List<BlockData> previous = new ArrayList<>();
+
+        /**
+         * @param world The world the blocks are in
+         * @param rollbackOnFailure Whether to undo all changes if a block can't be changed.
+         *                          Otherwise, blocks that can't be changed are skipped.
+         */
+        public Job(World world, boolean rollbackOnFailure) {
+            this.world = world;
+            this.rollbackOnFailure = rollbackOnFailure;
+        }
+
+        /**
+         * Adds a stage, which will be started after all previous stages are done
+         */
+        public Job addStage(List<Operation> operations) {
+            var stage = new ArrayList<>(operations);
+            stage.sort(Comparator.comparingLong(Operation::sectionKey));
+            stages.add(stage);
+            return this;
+        }
+
+        /**
+         * Called with every block that was changed
+         */
+        public Job onApplied(Consumer<Block> onApplied) {
+            this.onApplied = onApplied;
+            return this;
+        }
+
+        /**
+         * Called after all blocks were changed
+         */
+        public Job onSuccess(Runnable onSuccess) {
+            this.onSuccess = onSuccess;
+            return this;
+        }
+
+        /**
+         * Called after the changes were rolled back, with whether every changed block was restored.
+         * Blocks changed by others in the meantime are not restored.
+         */
+        public Job onFailure(Consumer<Boolean> onFailure) {
+            this.onFailure = onFailure;
+            return this;
+        }
+
+        private boolean isDone() {
+            return stage == stages.size();
+        }
+
+        /**
+         * Changes the blocks in the current chunk section
+         * @param limit The maximum number of blocks to change
+         * @return The number of blocks changed, or -1 if the job failed
+         */
+        private int applySection(int limit) {
+            List<Operation> operations = stages.get(stage);
+            int start = index;
+            long section = operations.get(start).sectionKey();
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            boolean moveEntities = false;
+            while (index < operations.size() && index - start < limit) {
+                Operation operation = operations.get(index);
+                if (operation.sectionKey() != section)
+                    break;
+                index++;
+                Block block = operation.block;
+                if ((rollbackOnFailure && !world.isChunkLoaded(block.getX() >> 4, block.getZ() >> 4)) ||
+                        block.getType() != operation.expected) {
+                    if (rollbackOnFailure)
+                        return -1;
+                    continue;
+                }
+                if (rollbackOnFailure) {
+                    applied.add(operation);
+                    previous.add(block.getBlockData());
+                }
+                block.setBlockData(operation.data);
+                if (operation.effect != null)
+                    world.playEffect(block.getLocation(), Effect.STEP_SOUND, operation.effect);
+                if (onApplied != null)
+                    onApplied.accept(block);
+                if (operation.moveEntities) {
+                    moveEntities = true;
+                    minX = Math.min(minX, block.getX());
+                    minY = Math.min(minY, block.getY());
+                    minZ = Math.min(minZ, block.getZ());
+                    maxX = Math.max(maxX, block.getX());
+                    maxY = Math.max(maxY, block.getY());
+                    maxZ = Math.max(maxZ, block.getZ());
+                }
+            }
+            // try to move entities in the way, with one lookup per section
+            if (moveEntities) {
+                BoundingBox box = new BoundingBox(minX, minY, minZ, maxX + 1, maxY + 1, maxZ + 1);
+                for (Entity entity : world.getNearbyEntities(box, entity -> !entity.isInsideVehicle())) {
+                    entity.teleport(entity.getLocation().add(0, 1, 0));
+                }
+            }
+            int count = index - start;
+            if (index == operations.size()) {
+                stage++;
+                index = 0;
+                nextStageTick = ticks + STAGE_INTERVAL;
+            }
+            return count;
+        }
+
+        /**
+         * @return Whether every changed block was restored
+         */
+        private boolean rollback() {
+            boolean restored = true;
+            for (int i = applied.size() - 1; i >= 0; i--) {
+                Operation operation = applied.get(i);
+                Block block = operation.block;
+                // don't undo changes made by others
+                if (block.getType() == operation.data.getMaterial())
+                    block.setBlockData(previous.get(i));
+                else
+                    restored = false;
+            }
+            applied.clear();
+            previous.clear();
+            return restored;
+        }
+    }
+
+    private static final ArrayDeque<Job> jobs = new ArrayDeque<>();
+    @Nullable
+    private static BukkitTask task;
+    private static long ticks;
+
+    /**
+     * Queues a job. The first stage is started on the next tick.
+     */
+    public static void submit(Job job) {
+        if (job.stages.isEmpty()) {
+            if (job.onSuccess != null)
+                job.onSuccess.run();
+            return;
+        }
+        job.nextStageTick = ticks;
+        jobs.add(job);
+        if (task == null)
+            task = Bukkit.getScheduler().runTaskTimer(PortableBeacons.INSTANCE, BlockOperationQueue::tick, 0, 1);
+    }
+
+    /**
+     * Finishes all jobs immediately
+     */
+    public static void cleanUp() {
+        while (!jobs.isEmpty()) {
+            Job job = jobs.poll();
+            while (!job.isDone()) {
+                if (job.stages.get(job.stage).isEmpty()) {
+                    job.stage++;
+                } else if (job.applySection(Integer.MAX_VALUE) == -1) {
+                    fail(job);
+                    break;
+                }
+            }
+            if (job.isDone() && job.onSuccess != null)
+                job.onSuccess.run();
+        }
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    private static void fail(Job job) {
+        boolean restored = job.rollback();
+        if (job.onFailure != null)
+            job.onFailure.accept(restored);
+    }
+
+    private static void tick() {
+        ticks++;
+        if (jobs.isEmpty()) {
+            task.cancel();
+            task = null;
+            return;
+        }
+        int budget = Config.performanceBlocksPerTick;
+        // split the budget evenly, but let jobs use what the others didn't
+        while (budget > 0) {
+            int waiting = 0, size = jobs.size();
+            int share = Math.max(1, budget / size);
+            for (int i = 0; i < size && budget > 0; i++) {
+                Job job = jobs.poll();
+                if (ticks < job.nextStageTick) {
+                    waiting++;
+                    jobs.add(job);
+                    continue;
+                }
+                List<Operation> operations = job.stages.get(job.stage);
+                int changed = 0;
+                if (operations.isEmpty()) {
+                    job.stage++;
+                    job.nextStageTick = ticks + STAGE_INTERVAL;
+                } else {
+                    changed = job.applySection(share);
+                }
+                if (changed == -1) {
+                    fail(job);
+                    continue;
+                }
+                budget -= changed;
+                if (job.isDone()) {
+                    if (job.onSuccess != null)
+                        job.onSuccess.run();
+                } else {
+                    jobs.add(job);
+                }
+            }
+            if (jobs.isEmpty() || waiting == jobs.size())
+                return;
+        }
+    }
+}
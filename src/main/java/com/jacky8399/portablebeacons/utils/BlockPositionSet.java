@@ -0,0 +1,106 @@
+package com.jacky8399.portablebeacons.utils;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A set of block positions across worlds, keyed by {@link #pack(int, int, int) packed coordinates}.
+ * <p>
+ * Lookups don't allocate, and usually return after checking a counter per chunk.
+ */
+public final class BlockPositionSet {
+    private static final int CHUNK_BUCKETS = 64;
+
+    private static final class WorldPositions {
+        final LongHashSet positions = new LongHashSet();
+        /**
+         * The number of positions in the chunks of each bucket, indexed by the lowest bits of the chunk coordinates.
+         * If the count is 0, the chunk definitely has no positions.
+         */
+        final int[] chunkCounts = new int[CHUNK_BUCKETS * CHUNK_BUCKETS];
+    }
+
+    private final Map<UUID, WorldPositions> worlds = new HashMap<>();
+    private int size;
+
+    /**
+     * Packs block coordinates into a long. Supports 26 bits of X and Z, and 12 bits of Y.
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | y & 0xFFF;
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    private static int chunkBucket(int x, int z) {
+        return ((x >> 4) & (CHUNK_BUCKETS - 1)) * CHUNK_BUCKETS + ((z >> 4) & (CHUNK_BUCKETS - 1));
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean add(World world, int x, int y, int z) {
+        WorldPositions positions = worlds.computeIfAbsent(world.getUID(), ignored -> new WorldPositions());
+        if (!positions.positions.add(pack(x, y, z)))
+            return false;
+        positions.chunkCounts[chunkBucket(x, z)]++;
+        size++;
+        return true;
+    }
+
+    public boolean add(Location location) {
+        return add(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    public boolean remove(World world, int x, int y, int z) {
+        WorldPositions positions = worlds.get(world.getUID());
+        if (positions == null || !positions.positions.remove(pack(x, y, z)))
+            return false;
+        positions.chunkCounts[chunkBucket(x, z)]--;
+        if (positions.positions.isEmpty())
+            worlds.remove(world.getUID());
+        size--;
+        return true;
+    }
+
+    public boolean remove(Location location) {
+        return remove(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    public boolean remove(Block block) {
+        return remove(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    public boolean contains(World world, int x, int y, int z) {
+        if (size == 0)
+            return false;
+        WorldPositions positions = worlds.get(world.getUID());
+        return positions != null && positions.chunkCounts[chunkBucket(x, z)] != 0 &&
+                positions.positions.contains(pack(x, y, z));
+    }
+
+    public boolean contains(Block block) {
+        return contains(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    public void clear() {
+        worlds.clear();
+        size = 0;
+    }
+}
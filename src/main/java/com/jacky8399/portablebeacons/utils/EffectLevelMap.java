@@ -0,0 +1,134 @@
+package com.jacky8399.portablebeacons.utils;
+
+import org.bukkit.potion.PotionEffectType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * An unmodifiable sorted map of effects to levels, backed by an array of levels indexed by
+ * {@link PotionEffectUtils#getIndex(PotionEffectType)} and a bitmask of the effects present.
+ * <p>
+ * Since the index is sorted, building one from unsorted input never needs to compare effects.
+ */
+public final class EffectLevelMap extends AbstractMap<PotionEffectType, Integer> implements SortedMap<PotionEffectType, Integer> {
+    private final short[] levels;
+    private final long[] mask;
+
+    /**
+     * @param levels The levels, indexed by effect index. Not copied, so must not be modified afterwards.
+     * @param mask The bitmask of effects present. Must not have bits set beyond the length of {@code levels}.
+     *             Not copied, so must not be modified afterwards.
+     */
+    public EffectLevelMap(short[] levels, long[] mask) {
+        this.levels = levels;
+        this.mask = mask;
+    }
+
+    @Override
+    public int size() {
+        return EffectSet.count(mask);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof PotionEffectType type && EffectSet.has(mask, PotionEffectUtils.getIndex(type));
+    }
+
+    @Override
+    public Integer get(Object key) {
+        if (!(key instanceof PotionEffectType type))
+            return null;
+        int index = PotionEffectUtils.getIndex(type);
+        return EffectSet.has(mask, index) ? (int) levels[index] : null;
+    }
+
+    @Override
+    public Comparator<? super PotionEffectType> comparator() {
+        return PotionEffectUtils.POTION_COMPARATOR;
+    }
+
+    private EffectLevelMap range(int from, int to) {
+        long[] newMask = mask.clone();
+        for (int i = EffectSet.nextSetBit(newMask, 0); i != -1; i = EffectSet.nextSetBit(newMask, i + 1)) {
+            if (i < from || i >= to)
+                newMask[i >> 6] &= ~(1L << i);
+        }
+        return new EffectLevelMap(levels, newMask);
+    }
+
+    @NotNull
+    @Override
+    public SortedMap<PotionEffectType, Integer> subMap(PotionEffectType fromKey, PotionEffectType toKey) {
+        return range(PotionEffectUtils.getIndex(fromKey), PotionEffectUtils.getIndex(toKey));
+    }
+
+    @NotNull
+    @Override
+    public SortedMap<PotionEffectType, Integer> headMap(PotionEffectType toKey) {
+        return range(0, PotionEffectUtils.getIndex(toKey));
+    }
+
+    @NotNull
+    @Override
+    public SortedMap<PotionEffectType, Integer> tailMap(PotionEffectType fromKey) {
+        return range(PotionEffectUtils.getIndex(fromKey), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public PotionEffectType firstKey() {
+        int first = EffectSet.nextSetBit(mask, 0);
+        if (first == -1)
+            throw new NoSuchElementException();
+        return PotionEffectUtils.getByIndex(first);
+    }
+
+    @Override
+    public PotionEffectType lastKey() {
+        int last = -1;
+        for (int i = EffectSet.nextSetBit(mask, 0); i != -1; i = EffectSet.nextSetBit(mask, i + 1))
+            last = i;
+        if (last == -1)
+            throw new NoSuchElementException();
+        return PotionEffectUtils.getByIndex(last);
+    }
+
+    @NotNull
+    @Override
+    public Set<PotionEffectType> keySet() {
+        return new EffectSet(mask);
+    }
+
+    @NotNull
+    @Override
+    public Set<Entry<PotionEffectType, Integer>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return EffectLevelMap.this.size();
+            }
+
+            @NotNull
+            @Override
+            public Iterator<Entry<PotionEffectType, Integer>> iterator() {
+                return new Iterator<>() {
+                    private int next = EffectSet.nextSetBit(mask, 0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != -1;
+                    }
+
+                    @Override
+                    public Entry<PotionEffectType, Integer> next() {
+                        if (next == -1)
+                            throw new NoSuchElementException();
+                        int index = next;
+                        next = EffectSet.nextSetBit(mask, index + 1);
+                        return new SimpleImmutableEntry<>(PotionEffectUtils.getByIndex(index), (int) levels[index]);
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+package com.jacky8399.portablebeacons.utils;
+
+import org.bukkit.potion.PotionEffectType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An unmodifiable set of effects, backed by a bitmask of {@link PotionEffectUtils#getIndex(PotionEffectType) effect indices}.
+ * Also contains helpers for working with such bitmasks.
+ */
+public final class EffectSet extends AbstractSet<PotionEffectType> {
+    public static final long[] EMPTY_MASK = new long[0];
+
+    private final long[] mask;
+    private final int size;
+
+    /**
+     * @param mask The bitmask. Not copied, so must not be modified afterwards.
+     */
+    public EffectSet(long[] mask) {
+        this.mask = mask;
+        this.size = count(mask);
+    }
+
+    public static boolean has(long[] mask, int index) {
+        int word = index >> 6;
+        return word < mask.length && (mask[word] & 1L << index) != 0;
+    }
+
+    /**
+     * Sets a bit in the mask in place, growing it if necessary
+     * @return The mask, or a larger copy of it
+     */
+    public static long[] set(long[] mask, int index) {
+        int word = index >> 6;
+        if (word >= mask.length)
+            mask = Arrays.copyOf(mask, word + 1);
+        mask[word] |= 1L << index;
+        return mask;
+    }
+
+    public static int count(long[] mask) {
+        int count = 0;
+        for (long word : mask)
+            count += Long.bitCount(word);
+        return count;
+    }
+
+    /**
+     * @return A new mask with the bits of {@code mask} that are not set in {@code other}
+     */
+    public static long[] andNot(long[] mask, long[] other) {
+        long[] result = mask.clone();
+        for (int i = 0; i < result.length && i < other.length; i++)
+            result[i] &= ~other[i];
+        return result;
+    }
+
+    /**
+     * @return The next set bit at or after {@code from}, or -1 if there is none
+     */
+    public static int nextSetBit(long[] mask, int from) {
+        int word = from >> 6;
+        if (word >= mask.length)
+            return -1;
+        long bits = mask[word] & -1L << from;
+        while (true) {
+            if (bits != 0)
+                return word << 6 | Long.numberOfTrailingZeros(bits);
+            if (++word == mask.length)
+                return -1;
+            bits = mask[word];
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof PotionEffectType type && has(mask, PotionEffectUtils.getIndex(type));
+    }
+
+    @NotNull
+    @Override
+    public Iterator<PotionEffectType> iterator() {
+        return new Iterator<>() {
+            private int next = nextSetBit(mask, 0);
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public PotionEffectType next() {
+                if (next == -1)
+                    throw new NoSuchElementException();
+                PotionEffectType type = PotionEffectUtils.getByIndex(next);
+                next = nextSetBit(mask, next + 1);
+                return type;
+            }
+        };
+    }
+}
@@ -73,6 +73,25 @@ public class ItemUtils {
         return newStack;
     }
 
+    /**
+     * Updates an obsolete beacon item to the current config
+     * @param player The player holding the item, if any
+     * @param effects The effects of the item, which are not modified
+     * @param stack The item
+     * @return The updated item, or null if the item is up-to-date
+     */
+    @Nullable
+    public static ItemStack updateItem(@Nullable Player player, @NotNull BeaconEffects effects, @NotNull ItemStack stack) {
+        if (!effects.shouldUpdate())
+            return null;
+        effects = new BeaconEffects(effects);
+        // downgrade OP effects
+        if (Config.nerfForceDowngrade)
+            effects.validateEffects();
+        effects.customDataVersion = Config.itemCustomVersion; // actually update custom data version
+        return createItemCopyItemData(player, effects, stack);
+    }
+
     // preserves item name and things
     @NotNull
     public static ItemMeta createMetaCopyItemData(@Nullable Player player, @NotNull BeaconEffects effects, @NotNull ItemMeta meta) {
@@ -88,30 +107,64 @@ public class ItemUtils {
 
         meta.addEnchant(Enchantment.DURABILITY, 1, true);
         meta.addItemFlags(ItemFlag.HIDE_ENCHANTS);
-        List<BaseComponent> effectsLore = effects.toLore(hideEffects, hideEffects);
 
-        if (!Config.itemLore.isEmpty()) {
-            List<BaseComponent> lore = new ArrayList<>(effectsLore.size() + Config.itemLore.size() + 1);
-            lore.addAll(effectsLore);
-            lore.add(new TextComponent());
-            boolean placeholderApi = Config.placeholderApi;
-            try {
-                for (String line : Config.itemLore) {
-                    if (placeholderApi) line = PlaceholderAPI.setPlaceholders(player, line);
-                    TextComponent text = new TextComponent(TextComponent.fromLegacyText(Config.translateColor(line)));
-                    text.setItalic(false);
-                    lore.add(text);
-                }
-            } catch (Exception ignored) {
+        if (ITEM_META_LORE != null && !(Config.placeholderApi && hasPlaceholders(Config.itemLore))) {
+            // the lore is the same for every player, reuse the serialized lore
+            Object key = effects.getLoreKey(hideEffects, hideEffects);
+            List<String> lore = LORE_CACHE.get(key);
+            if (lore == null) {
+                lore = createLore(player, effects, hideEffects).stream().map(ComponentSerializer::toString).toList();
+                LORE_CACHE.put(key, lore);
             }
-            ItemUtils.setLore(meta, lore);
+            ITEM_META_LORE.set(meta, lore);
         } else {
-            ItemUtils.setLore(meta, effectsLore);
+            ItemUtils.setLore(meta, createLore(player, effects, hideEffects));
         }
         setEffects(meta, effects);
         return meta;
     }
 
+    private static List<BaseComponent> createLore(@Nullable Player player, @NotNull BeaconEffects effects, boolean hideEffects) {
+        List<BaseComponent> effectsLore = effects.toLore(hideEffects, hideEffects);
+        if (Config.itemLore.isEmpty())
+            return effectsLore;
+
+        List<BaseComponent> lore = new ArrayList<>(effectsLore.size() + Config.itemLore.size() + 1);
+        lore.addAll(effectsLore);
+        lore.add(new TextComponent());
+        boolean placeholderApi = Config.placeholderApi;
+        try {
+            for (String line : Config.itemLore) {
+                if (placeholderApi) line = PlaceholderAPI.setPlaceholders(player, line);
+                TextComponent text = new TextComponent(TextComponent.fromLegacyText(Config.translateColor(line)));
+                text.setItalic(false);
+                lore.add(text);
+            }
+        } catch (Exception ignored) {
+        }
+        return lore;
+    }
+
+    private static boolean hasPlaceholders(List<String> lines) {
+        for (String line : lines) {
+            if (line.indexOf('%') != -1)
+                return true;
+        }
+        return false;
+    }
+
+    private static final int LORE_CACHE_SIZE = 256;
+    /**
+     * Serialized lore of beacon effects, keyed by {@link BeaconEffects#getLoreKey(boolean, boolean)}.
+     * The lists are unmodifiable and shared between items.
+     */
+    private static final Map<Object, List<String>> LORE_CACHE = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, List<String>> eldest) {
+            return size() > LORE_CACHE_SIZE;
+        }
+    });
+
     /*
         Spigot stores the display name and lore as JSON strings internally, but there is no API to set them to a JSON text.
         https://hub.spigotmc.org/stash/projects/SPIGOT/repos/craftbukkit/browse/src/main/java/org/bukkit/craftbukkit/inventory/CraftMetaItem.java?at=64c15270e76475e68b2167d4bfba162a4a827fe0#267
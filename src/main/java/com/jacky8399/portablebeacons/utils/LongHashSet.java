@@ -0,0 +1,117 @@
+package com.jacky8399.portablebeacons.utils;
+
+/**
+ * An open-addressing hash set of primitive longs, which doesn't allocate on lookups.
+ */
+public final class LongHashSet {
+    private static final int MIN_CAPACITY = 16;
+
+    // 0 marks an empty slot, so it is tracked separately
+    private long[] keys = new long[MIN_CAPACITY];
+    private boolean hasZero;
+    private int size;
+
+    private static int mix(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0)
+            return hasZero;
+        long[] keys = this.keys;
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long current = keys[i];
+            if (current == key)
+                return true;
+            else if (current == 0)
+                return false;
+        }
+    }
+
+    /**
+     * @return Whether the key was not already in the set
+     */
+    public boolean add(long key) {
+        if (key == 0) {
+            if (hasZero)
+                return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        for (; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return false;
+        }
+        keys[i] = key;
+        // keep the load factor under 1/2
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+        return true;
+    }
+
+    /**
+     * @return Whether the key was in the set
+     */
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!hasZero)
+                return false;
+            hasZero = false;
+            size--;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        for (; keys[i] != key; i = (i + 1) & mask) {
+            if (keys[i] == 0)
+                return false;
+        }
+        // shift back the following keys in the same cluster
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            // move the key into the gap if its home slot is not between the gap and the key
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                gap = j;
+            }
+        }
+        keys[gap] = 0;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        keys = new long[MIN_CAPACITY];
+        hasZero = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] newKeys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key == 0)
+                continue;
+            int i = mix(key) & mask;
+            while (newKeys[i] != 0)
+                i = (i + 1) & mask;
+            newKeys[i] = key;
+        }
+        keys = newKeys;
+    }
+}
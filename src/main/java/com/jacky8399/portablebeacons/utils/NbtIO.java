@@ -0,0 +1,193 @@
+package com.jacky8399.portablebeacons.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A minimal reader and writer for the NBT format used by Minecraft save files.
+ * <p>
+ * Compounds are read as {@link LinkedHashMap}s, lists as {@link NbtList}s, arrays as primitive arrays,
+ * and everything else as their boxed types.
+ * <p>
+ * Does not depend on Bukkit, so that it can be used by tools running outside of the server.
+ */
+public final class NbtIO {
+    private NbtIO() {}
+
+    public static final byte TAG_END = 0, TAG_BYTE = 1, TAG_SHORT = 2, TAG_INT = 3, TAG_LONG = 4, TAG_FLOAT = 5,
+            TAG_DOUBLE = 6, TAG_BYTE_ARRAY = 7, TAG_STRING = 8, TAG_LIST = 9, TAG_COMPOUND = 10,
+            TAG_INT_ARRAY = 11, TAG_LONG_ARRAY = 12;
+
+    private static final int MAX_DEPTH = 512;
+
+    /**
+     * A list tag. The element type is kept so that empty lists can be written back as they were.
+     */
+    public record NbtList(byte elementType, List<Object> elements) {}
+
+    public static Map<String, Object> readCompressed(Path path) throws IOException {
+        try (var input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            return read(input);
+        }
+    }
+
+    public static void writeCompressed(Map<String, Object> compound, Path path) throws IOException {
+        try (var output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))))) {
+            write(output, compound);
+        }
+    }
+
+    /**
+     * Reads a named root compound
+     */
+    public static Map<String, Object> read(DataInput input) throws IOException {
+        byte type = input.readByte();
+        if (type != TAG_COMPOUND)
+            throw new IOException("Root tag must be a compound, got " + type);
+        input.readUTF(); // name
+        return readCompound(input, 0);
+    }
+
+    /**
+     * Writes a compound as the root compound, with an empty name
+     */
+    public static void write(DataOutput output, Map<String, Object> compound) throws IOException {
+        output.writeByte(TAG_COMPOUND);
+        output.writeUTF("");
+        writePayload(output, compound, 0);
+    }
+
+    private static Map<String, Object> readCompound(DataInput input, int depth) throws IOException {
+        Map<String, Object> compound = new LinkedHashMap<>();
+        byte type;
+        while ((type = input.readByte()) != TAG_END) {
+            String name = input.readUTF();
+            compound.put(name, readPayload(input, type, depth + 1));
+        }
+        return compound;
+    }
+
+    private static Object readPayload(DataInput input, byte type, int depth) throws IOException {
+        if (depth > MAX_DEPTH)
+            throw new IOException("NBT too deeply nested");
+        return switch (type) {
+            case TAG_BYTE -> input.readByte();
+            case TAG_SHORT -> input.readShort();
+            case TAG_INT -> input.readInt();
+            case TAG_LONG -> input.readLong();
+            case TAG_FLOAT -> input.readFloat();
+            case TAG_DOUBLE -> input.readDouble();
+            case TAG_BYTE_ARRAY -> {
+                byte[] array = new byte[readLength(input)];
+                input.readFully(array);
+                yield array;
+            }
+            case TAG_STRING -> input.readUTF();
+            case TAG_LIST -> {
+                byte elementType = input.readByte();
+                int length = readLength(input);
+                List<Object> elements = new ArrayList<>(Math.min(length, 1024));
+                for (int i = 0; i < length; i++) {
+                    elements.add(readPayload(input, elementType, depth + 1));
+                }
+                yield new NbtList(elementType, elements);
+            }
+            case TAG_COMPOUND -> readCompound(input, depth);
+            case TAG_INT_ARRAY -> {
+                int[] array = new int[readLength(input)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = input.readInt();
+                }
+                yield array;
+            }
+            case TAG_LONG_ARRAY -> {
+                long[] array = new long[readLength(input)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = input.readLong();
+                }
+                yield array;
+            }
+            default -> throw new IOException("Invalid tag type " + type);
+        };
+    }
+
+    private static int readLength(DataInput input) throws IOException {
+        int length = input.readInt();
+        if (length < 0)
+            throw new IOException("Invalid length " + length);
+        return length;
+    }
+
+    public static byte getType(Object tag) {
+        if (tag instanceof Byte) return TAG_BYTE;
+        else if (tag instanceof Short) return TAG_SHORT;
+        else if (tag instanceof Integer) return TAG_INT;
+        else if (tag instanceof Long) return TAG_LONG;
+        else if (tag instanceof Float) return TAG_FLOAT;
+        else if (tag instanceof Double) return TAG_DOUBLE;
+        else if (tag instanceof byte[]) return TAG_BYTE_ARRAY;
+        else if (tag instanceof String) return TAG_STRING;
+        else if (tag instanceof NbtList) return TAG_LIST;
+        else if (tag instanceof Map<?, ?>) return TAG_COMPOUND;
+        else if (tag instanceof int[]) return TAG_INT_ARRAY;
+        else if (tag instanceof long[]) return TAG_LONG_ARRAY;
+        throw new IllegalArgumentException("Not a tag: " + tag);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writePayload(DataOutput output, Object tag, int depth) throws IOException {
+        if (depth > MAX_DEPTH)
+            throw new IOException("NBT too deeply nested");
+        switch (getType(tag)) {
+            case TAG_BYTE -> output.writeByte((Byte) tag);
+            case TAG_SHORT -> output.writeShort((Short) tag);
+            case TAG_INT -> output.writeInt((Integer) tag);
+            case TAG_LONG -> output.writeLong((Long) tag);
+            case TAG_FLOAT -> output.writeFloat((Float) tag);
+            case TAG_DOUBLE -> output.writeDouble((Double) tag);
+            case TAG_BYTE_ARRAY -> {
+                byte[] array = (byte[]) tag;
+                output.writeInt(array.length);
+                output.write(array);
+            }
+            case TAG_STRING -> output.writeUTF((String) tag);
+            case TAG_LIST -> {
+                NbtList list = (NbtList) tag;
+                output.writeByte(list.elementType);
+                output.writeInt(list.elements.size());
+                for (Object element : list.elements) {
+                    writePayload(output, element, depth + 1);
+                }
+            }
+            case TAG_COMPOUND -> {
+                for (var entry : ((Map<String, Object>) tag).entrySet()) {
+                    output.writeByte(getType(entry.getValue()));
+                    output.writeUTF(entry.getKey());
+                    writePayload(output, entry.getValue(), depth + 1);
+                }
+                output.writeByte(TAG_END);
+            }
+            case TAG_INT_ARRAY -> {
+                int[] array = (int[]) tag;
+                output.writeInt(array.length);
+                for (int i : array) {
+                    output.writeInt(i);
+                }
+            }
+            case TAG_LONG_ARRAY -> {
+                long[] array = (long[]) tag;
+                output.writeInt(array.length);
+                for (long l : array) {
+                    output.writeLong(l);
+                }
+            }
+        }
+    }
+}
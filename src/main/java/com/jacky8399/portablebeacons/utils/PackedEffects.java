@@ -0,0 +1,138 @@
+package com.jacky8399.portablebeacons.utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The compact format of beacon effects used by data version 5.
+ * <p>
+ * Everything except the soulbound owner and the beaconator mode is stored in a single int array:
+ * <pre>
+ * [count, (id << 16 | level) * count, disabled mask (high), disabled mask (low),
+ *  exp reduction level, soulbound level, beaconator level, selected beaconator level]
+ * </pre>
+ * where {@code id} is the index of the effect in {@link #EFFECT_KEYS}, and the disabled mask has bit {@code id} set
+ * for every disabled effect.
+ * <p>
+ * Does not depend on Bukkit, so that it can be used by tools running outside of the server.
+ */
+public final class PackedEffects {
+    private PackedEffects() {}
+
+    /**
+     * The dictionary of effects that can be packed.
+     * Entries must only ever be appended, and there can be at most 64 of them.
+     */
+    public static final List<String> EFFECT_KEYS = List.of(
+            "minecraft:speed", "minecraft:slowness", "minecraft:haste", "minecraft:mining_fatigue",
+            "minecraft:strength", "minecraft:instant_health", "minecraft:instant_damage", "minecraft:jump_boost",
+            "minecraft:nausea", "minecraft:regeneration", "minecraft:resistance", "minecraft:fire_resistance",
+            "minecraft:water_breathing", "minecraft:invisibility", "minecraft:blindness", "minecraft:night_vision",
+            "minecraft:hunger", "minecraft:weakness", "minecraft:poison", "minecraft:wither",
+            "minecraft:health_boost", "minecraft:absorption", "minecraft:saturation", "minecraft:glowing",
+            "minecraft:levitation", "minecraft:luck", "minecraft:unluck", "minecraft:slow_falling",
+            "minecraft:conduit_power", "minecraft:dolphins_grace", "minecraft:bad_omen", "minecraft:hero_of_the_village",
+            "minecraft:darkness"
+    );
+    private static final Map<String, Integer> EFFECT_IDS;
+    static {
+        if (EFFECT_KEYS.size() > 64)
+            throw new IllegalStateException("Too many effects");
+        EFFECT_IDS = new HashMap<>();
+        for (int i = 0; i < EFFECT_KEYS.size(); i++) {
+            EFFECT_IDS.put(EFFECT_KEYS.get(i), i);
+        }
+    }
+
+    /**
+     * A map of Bukkit effect names to vanilla names, for the effects whose names differ
+     */
+    public static final Map<String, String> BUKKIT_EFFECT_NAMES = Map.of(
+            "slow", "slowness",
+            "fast_digging", "haste",
+            "slow_digging", "mining_fatigue",
+            "increase_damage", "strength",
+            "heal", "instant_health",
+            "harm", "instant_damage",
+            "jump", "jump_boost",
+            "confusion", "nausea",
+            "damage_resistance", "resistance"
+    );
+
+    private static final int TRAILER_LENGTH = 6;
+
+    /**
+     * @param key The namespaced key of the effect, e.g. {@code minecraft:speed}
+     * @return The ID of the effect, or -1 if the effect cannot be packed
+     */
+    public static int getId(String key) {
+        Integer id = EFFECT_IDS.get(key);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @param name The Bukkit name of the effect, e.g. {@code INCREASE_DAMAGE}
+     * @return The ID of the effect, or -1 if the effect cannot be packed
+     */
+    public static int getIdByBukkitName(String name) {
+        name = name.toLowerCase(Locale.ENGLISH);
+        return getId("minecraft:" + BUKKIT_EFFECT_NAMES.getOrDefault(name, name));
+    }
+
+    /**
+     * The unpacked data
+     * @param ids The IDs of the effects
+     * @param levels The levels of the effects, in the same order as {@code ids}
+     * @param disabledMask Bit {@code id} is set if the effect is disabled
+     */
+    public record Unpacked(int[] ids, int[] levels, long disabledMask,
+                           int expReductionLevel, int soulboundLevel,
+                           int beaconatorLevel, int beaconatorSelectedLevel) {
+        public boolean isDisabled(int id) {
+            return (disabledMask & 1L << id) != 0;
+        }
+    }
+
+    public static int[] pack(Unpacked unpacked) {
+        int[] ids = unpacked.ids, levels = unpacked.levels;
+        if (ids.length != levels.length)
+            throw new IllegalArgumentException("ids and levels must have the same length");
+        int count = ids.length;
+        int[] data = new int[1 + count + TRAILER_LENGTH];
+        data[0] = count;
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            if (id < 0 || id >= EFFECT_KEYS.size())
+                throw new IllegalArgumentException("Invalid effect ID " + id);
+            data[1 + i] = id << 16 | levels[i] & 0xFFFF;
+        }
+        int trailer = 1 + count;
+        data[trailer] = (int) (unpacked.disabledMask >>> 32);
+        data[trailer + 1] = (int) unpacked.disabledMask;
+        data[trailer + 2] = unpacked.expReductionLevel;
+        data[trailer + 3] = unpacked.soulboundLevel;
+        data[trailer + 4] = unpacked.beaconatorLevel;
+        data[trailer + 5] = unpacked.beaconatorSelectedLevel;
+        return data;
+    }
+
+    public static Unpacked unpack(int[] data) {
+        if (data.length == 0)
+            throw new IllegalArgumentException("Empty data");
+        int count = data[0];
+        if (count < 0 || data.length != 1 + count + TRAILER_LENGTH)
+            throw new IllegalArgumentException("Invalid length " + data.length + " for " + count + " effects");
+        int[] ids = new int[count], levels = new int[count];
+        for (int i = 0; i < count; i++) {
+            int entry = data[1 + i];
+            ids[i] = entry >>> 16;
+            levels[i] = entry & 0xFFFF;
+        }
+        int trailer = 1 + count;
+        long disabledMask = (long) data[trailer] << 32 | data[trailer + 1] & 0xFFFFFFFFL;
+        return new Unpacked(ids, levels, disabledMask,
+                data[trailer + 2], data[trailer + 3], data[trailer + 4], data[trailer + 5]);
+    }
+}
@@ -0,0 +1,76 @@
+package com.jacky8399.portablebeacons.utils;
+
+/**
+ * Packs small non-negative integers, such as palette indices, into as few bits as possible.
+ * Values are stored in the lowest bits of each byte first.
+ */
+public final class PackedIndices {
+    private PackedIndices() {}
+
+    /**
+     * @return The number of bits needed to store values from 0 until the count
+     */
+    public static int getBitsPerValue(int count) {
+        return 32 - Integer.numberOfLeadingZeros(count - 1);
+    }
+
+    /**
+     * @return The number of bytes needed to store the values
+     */
+    public static int getByteLength(int count, int bits) {
+        return (count * bits + 7) / 8;
+    }
+
+    /**
+     * Packs the values into a byte array
+     * @param values The values, each fitting in the number of bits
+     * @param bits The number of bits per value, up to 24
+     * @return The packed values
+     */
+    public static byte[] pack(int[] values, int bits) {
+        byte[] bytes = new byte[getByteLength(values.length, bits)];
+        long buffer = 0;
+        int buffered = 0, position = 0;
+        for (int value : values) {
+            buffer |= (long) value << buffered;
+            buffered += bits;
+            while (buffered >= 8) {
+                bytes[position++] = (byte) buffer;
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+        if (buffered != 0)
+            bytes[position] = (byte) buffer;
+        return bytes;
+    }
+
+    /**
+     * Unpacks values packed by {@link #pack(int[], int)}
+     * @param bytes The packed values
+     * @param count The number of values
+     * @param bits The number of bits per value
+     * @return The values
+     * @throws IllegalStateException If the byte array doesn't have the expected length
+     */
+    public static int[] unpack(byte[] bytes, int count, int bits) {
+        int expectedLength = getByteLength(count, bits);
+        if (bytes.length != expectedLength) {
+            throw new IllegalStateException("Expected " + expectedLength + " bytes of indices, got " + bytes.length);
+        }
+        int[] values = new int[count];
+        int mask = (1 << bits) - 1;
+        long buffer = 0;
+        int buffered = 0, position = 0;
+        for (int i = 0; i < count; i++) {
+            while (buffered < bits) {
+                buffer |= (bytes[position++] & 0xFFL) << buffered;
+                buffered += 8;
+            }
+            values[i] = (int) (buffer & mask);
+            buffer >>>= bits;
+            buffered -= bits;
+        }
+        return values;
+    }
+}
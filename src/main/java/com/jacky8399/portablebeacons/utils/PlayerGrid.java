@@ -0,0 +1,76 @@
+package com.jacky8399.portablebeacons.utils;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.*;
+
+/**
+ * A uniform grid of players keyed by chunk, for finding nearby players without iterating over everyone.
+ * Positions are only updated when the grid is rebuilt.
+ */
+public final class PlayerGrid {
+    private static final int CELL_SHIFT = 4; // 16 blocks per cell
+
+    private record Entry(Player player, double x, double y, double z) {}
+
+    private final Map<UUID, Map<Long, List<Entry>>> worlds = new HashMap<>();
+
+    private static long cellKey(int cellX, int cellZ) {
+        return (long) cellX << 32 | cellZ & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Discards all previous positions and indexes the given players at their current location
+     * @param players The players
+     */
+    public void rebuild(Collection<? extends Player> players) {
+        worlds.clear();
+        for (Player player : players) {
+            Location location = player.getLocation();
+            World world = location.getWorld();
+            if (world == null)
+                continue;
+            int cellX = location.getBlockX() >> CELL_SHIFT, cellZ = location.getBlockZ() >> CELL_SHIFT;
+            worlds.computeIfAbsent(world.getUID(), ignored -> new HashMap<>())
+                    .computeIfAbsent(cellKey(cellX, cellZ), ignored -> new ArrayList<>(4))
+                    .add(new Entry(player, location.getX(), location.getY(), location.getZ()));
+        }
+    }
+
+    public void clear() {
+        worlds.clear();
+    }
+
+    /**
+     * Finds all indexed players within a spherical radius of the location
+     * @param center The center
+     * @param radius The radius
+     * @param out The list to add the players to
+     */
+    public void getNearbyPlayers(Location center, double radius, List<Player> out) {
+        World world = center.getWorld();
+        if (world == null)
+            return;
+        Map<Long, List<Entry>> cells = worlds.get(world.getUID());
+        if (cells == null)
+            return;
+        double x = center.getX(), y = center.getY(), z = center.getZ();
+        double radiusSquared = radius * radius;
+        int minCellX = (int) Math.floor(x - radius) >> CELL_SHIFT, maxCellX = (int) Math.floor(x + radius) >> CELL_SHIFT;
+        int minCellZ = (int) Math.floor(z - radius) >> CELL_SHIFT, maxCellZ = (int) Math.floor(z + radius) >> CELL_SHIFT;
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                List<Entry> entries = cells.get(cellKey(cellX, cellZ));
+                if (entries == null)
+                    continue;
+                for (Entry entry : entries) {
+                    double dx = entry.x - x, dy = entry.y - y, dz = entry.z - z;
+                    if (dx * dx + dy * dy + dz * dz <= radiusSquared)
+                        out.add(entry.player);
+                }
+            }
+        }
+    }
+}
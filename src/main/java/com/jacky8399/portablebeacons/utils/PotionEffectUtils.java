@@ -18,31 +18,18 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class PotionEffectUtils {
-    public static final Comparator<PotionEffectType> POTION_COMPARATOR = Comparator
-            .comparing(PotionEffectUtils::isNegative)
-            .thenComparing(PotionEffectUtils::getName);
-
     /**
-     * A bi-map of Bukkit effect names to vanilla names
+     * Sorts positive effects before negative effects, then by name.
+     * Compares the {@link #getIndex(PotionEffectType) index} of the effects, which is ranked in that order at startup.
      */
-    private static final Map<String, String> VANILLA_EFFECT_NAMES = Map.of(
-            "slow", "slowness",
-            "fast_digging", "haste",
-            "slow_digging", "mining_fatigue",
-            "increase_damage", "strength",
-            "heal", "instant_health",
-            "harm", "instant_damage",
-            "jump", "jump_boost",
-            "confusion", "nausea",
-            "damage_resistance", "resistance"
-    );
+    public static final Comparator<PotionEffectType> POTION_COMPARATOR = Comparator.comparingInt(PotionEffectUtils::getIndex);
 
     @Nullable
     public static PotionEffectType parsePotion(@NotNull String input, boolean allowBukkitNames) {
         if (allowBukkitNames) {
             // convert Bukkit names to vanilla namespaced name
             input = input.toLowerCase(Locale.ENGLISH);
-            input = VANILLA_EFFECT_NAMES.getOrDefault(input, input);
+            input = PackedEffects.BUKKIT_EFFECT_NAMES.getOrDefault(input, input);
             if (input == null)
                 return null;
         }
@@ -83,6 +70,83 @@ public class PotionEffectUtils {
         return NEGATIVE_EFFECTS.contains(potion) || NEGATIVE_EFFECT_IDS.contains(potion.getKey().getKey());
     }
 
+    // Effect index
+    // must be initialized after NEGATIVE_EFFECTS
+
+    /**
+     * All known effects, sorted by whether they are negative and then by name.
+     * Effects that are unknown at startup are appended when they are first seen, so they are always sorted last.
+     * The index of an effect never changes.
+     */
+    private static volatile PotionEffectType[] indexedEffects;
+    private static volatile Map<PotionEffectType, Integer> effectIndices;
+    private static volatile Map<NamespacedKey, PotionEffectType> effectsByKey;
+    static {
+        PotionEffectType[] effects = PotionEffectType.values().clone();
+        Arrays.sort(effects, Comparator.comparing(PotionEffectUtils::isNegative).thenComparing(PotionEffectUtils::getName));
+        setIndexedEffects(effects);
+    }
+
+    private static void setIndexedEffects(PotionEffectType[] effects) {
+        Map<PotionEffectType, Integer> indices = new HashMap<>();
+        Map<NamespacedKey, PotionEffectType> byKey = new HashMap<>();
+        for (int i = 0; i < effects.length; i++) {
+            PotionEffectType type = effects[i];
+            indices.put(type, i);
+            byKey.put(type.getKey(), type);
+        }
+        effectsByKey = byKey;
+        effectIndices = indices;
+        indexedEffects = effects;
+    }
+
+    private static synchronized int addIndexedEffect(PotionEffectType type) {
+        Integer index = effectIndices.get(type);
+        if (index != null)
+            return index;
+        PotionEffectType[] effects = Arrays.copyOf(indexedEffects, indexedEffects.length + 1);
+        effects[effects.length - 1] = type;
+        setIndexedEffects(effects);
+        return effects.length - 1;
+    }
+
+    /**
+     * Gets the index of the effect. Indices are dense, and can be used as array indices.
+     * @param type The effect
+     * @return The index of the effect
+     */
+    public static int getIndex(PotionEffectType type) {
+        Integer index = effectIndices.get(type);
+        return index != null ? index : addIndexedEffect(type);
+    }
+
+    public static PotionEffectType getByIndex(int index) {
+        return indexedEffects[index];
+    }
+
+    /**
+     * @return The number of indexed effects, which might increase if new effects are registered
+     */
+    public static int getIndexedEffectCount() {
+        return indexedEffects.length;
+    }
+
+    /**
+     * Like {@link #parsePotion(NamespacedKey)}, but looks up known effects without going through the registry
+     * @param key The key
+     * @return The effect, or null if not found
+     */
+    @Nullable
+    public static PotionEffectType getByKey(NamespacedKey key) {
+        PotionEffectType type = effectsByKey.get(key);
+        if (type != null)
+            return type;
+        type = parsePotion(key);
+        if (type != null)
+            getIndex(type);
+        return type;
+    }
+
     public static int getRequiredTier(PotionEffect potion) {
         if (potion == null) {
             return -1;
@@ -0,0 +1,67 @@
+package com.jacky8399.portablebeacons.utils;
+
+import com.jacky8399.portablebeacons.Config;
+import com.jacky8399.portablebeacons.PortableBeacons;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Checks whether a player can change the blocks in an area, such as a beacon pyramid,
+ * with as few checks as {@link Config#performanceProtectionCheck} allows.
+ */
+public final class ProtectionCheck {
+    private final Player player;
+    private final Block min, max;
+    private final Config.ProtectionCheckMode mode;
+    private final Map<Long, Boolean> chunkResults = new HashMap<>();
+    @Nullable
+    private Boolean areaResult;
+
+    /**
+     * @param player The player changing the blocks
+     * @param min The minimum corner of the area
+     * @param max The maximum corner of the area
+     */
+    public ProtectionCheck(Player player, Block min, Block max) {
+        this.player = player;
+        this.min = min;
+        this.max = max;
+        Config.ProtectionCheckMode mode = Config.performanceProtectionCheck;
+        if (mode == Config.ProtectionCheckMode.WORLD_GUARD && !(Config.worldGuard && PortableBeacons.INSTANCE.worldGuardInstalled))
+            mode = Config.ProtectionCheckMode.CHUNK;
+        this.mode = mode;
+    }
+
+    /**
+     * Checks whether the player can change the block
+     * @param block The block in the area
+     * @param eventCheck Checks the block by firing events, returning whether the player can change the block
+     * @return Whether the player can change the block
+     */
+    public boolean test(Block block, Predicate<Block> eventCheck) {
+        switch (mode) {
+            case CHUNK -> {
+                long key = (long) (block.getX() >> 4) << 32 | (block.getZ() >> 4) & 0xFFFFFFFFL;
+                Boolean result = chunkResults.get(key);
+                if (result == null) {
+                    result = eventCheck.test(block);
+                    chunkResults.put(key, result);
+                }
+                return result;
+            }
+            case WORLD_GUARD -> {
+                if (areaResult == null)
+                    areaResult = WorldGuardHelper.canBuild(player, min.getWorld(), min, max);
+                return areaResult;
+            }
+            default -> {
+                return eventCheck.test(block);
+            }
+        }
+    }
+}
@@ -1,24 +1,36 @@
 package com.jacky8399.portablebeacons.utils;
 
 import com.jacky8399.portablebeacons.BeaconEffects;
+import com.jacky8399.portablebeacons.Config;
 import com.jacky8399.portablebeacons.PortableBeacons;
 import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldguard.LocalPlayer;
 import com.sk89q.worldguard.WorldGuard;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
 import com.sk89q.worldguard.protection.flags.*;
 import com.sk89q.worldguard.protection.flags.registry.FlagConflictException;
 import com.sk89q.worldguard.protection.flags.registry.FlagRegistry;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
 import com.sk89q.worldguard.protection.regions.RegionContainer;
 import com.sk89q.worldguard.protection.regions.RegionQuery;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.ServerCommandEvent;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WorldGuardHelper {
     public static StateFlag PORTABLE_BEACONS;
@@ -57,16 +69,45 @@ public class WorldGuardHelper {
         return WorldGuard.getInstance().getPlatform().getSessionManager().hasBypass(wgPlayer, wgPlayer.getWorld());
     }
 
+    /**
+     * Checks if the player can build in all regions overlapping the cuboid, with one region query
+     * @param player The player
+     * @param world The world
+     * @param min The minimum corner of the cuboid
+     * @param max The maximum corner of the cuboid
+     * @return Whether the player can build in the cuboid
+     */
+    public static boolean canBuild(Player player, World world, Block min, Block max) {
+        var wgPlayer = WorldGuardPlugin.inst().wrapPlayer(player);
+        var wgWorld = BukkitAdapter.adapt(world);
+        if (WorldGuard.getInstance().getPlatform().getSessionManager().hasBypass(wgPlayer, wgWorld))
+            return true;
+        RegionManager manager = WorldGuard.getInstance().getPlatform().getRegionContainer().get(wgWorld);
+        if (manager == null)
+            return true; // regions are disabled in the world
+        var area = new ProtectedCuboidRegion("portablebeacons-area",
+                BlockVector3.at(min.getX(), min.getY(), min.getZ()), BlockVector3.at(max.getX(), max.getY(), max.getZ()));
+        return manager.getApplicableRegions(area).testState(wgPlayer, Flags.BUILD);
+    }
+
     /**
      * Checks if the player is in a WorldGuard region where beacon use is disabled
      * @param player The player
      * @return Whether the player can use beacons
      */
     public static boolean canUseBeacons(Player player) {
-        Location loc = player.getLocation();
-        RegionContainer container = WorldGuard.getInstance().getPlatform().getRegionContainer();
-        RegionQuery query = container.createQuery();
-        return query.testState(BukkitAdapter.adapt(loc), WorldGuardPlugin.inst().wrapPlayer(player), PORTABLE_BEACONS);
+        return canUseBeacons(player, player.getLocation());
+    }
+
+    /**
+     * Checks if the location is in a WorldGuard region where beacon use is disabled for the player.
+     * Safe to call asynchronously, as the player is only used for membership checks.
+     * @param player The player
+     * @param loc The location of the player
+     * @return Whether the player can use beacons
+     */
+    public static boolean canUseBeacons(Player player, Location loc) {
+        return getRegionResult(player, loc).canUseBeacons;
     }
 
     /**
@@ -77,19 +118,102 @@ public class WorldGuardHelper {
      */
     @NotNull
     public static BeaconEffects filterBeaconEffects(Player player, BeaconEffects effects) {
-        Location loc = player.getLocation();
+        return filterBeaconEffects(player, player.getLocation(), effects);
+    }
+
+    /**
+     * Filters the given beacon effects according to the regions at the location.
+     * Safe to call asynchronously, as the player is only used for membership checks.
+     * @param player The associated player
+     * @param loc The location of the player
+     * @param effects The effects to filter
+     * @return The filtered effects, or the original effects if no filters were applied
+     */
+    @NotNull
+    public static BeaconEffects filterBeaconEffects(Player player, Location loc, BeaconEffects effects) {
+        RegionResult result = getRegionResult(player, loc);
+        if (result.allowedFilters != null || result.blockedFilters != null) {
+            BeaconEffects newEffects = new BeaconEffects(effects);
+            newEffects.filter(result.allowedFilters, result.blockedFilters);
+            return newEffects;
+        }
+        return effects;
+    }
+
+    // Region cache
+
+    /**
+     * The flag values that apply to a player at a location
+     * @param canUseBeacons The value of {@link #PORTABLE_BEACONS}
+     * @param allowedFilters The parsed value of {@link #PB_ALLOWED_EFFECTS}, or null if not set
+     * @param blockedFilters The parsed value of {@link #PB_BLOCKED_EFFECTS}, or null if not set
+     */
+    public record RegionResult(boolean canUseBeacons,
+                               @Nullable List<BeaconEffectsFilter> allowedFilters,
+                               @Nullable List<BeaconEffectsFilter> blockedFilters) {}
+
+    private record CachedRegionResult(UUID world, int x, int y, int z, int version, int generation, long expiresAt,
+                                      RegionResult result) {
+        boolean isValidFor(Location loc) {
+            return version == regionVersion && generation == Config.generation &&
+                    System.currentTimeMillis() < expiresAt &&
+                    x == loc.getBlockX() && y == loc.getBlockY() && z == loc.getBlockZ() &&
+                    world.equals(loc.getWorld().getUID());
+        }
+    }
+
+    /**
+     * Regions can also be changed through the API, so don't trust cached results forever.
+     * Spans several effect cycles (3.75 seconds each), so that players standing still are rarely queried again.
+     */
+    private static final long CACHE_DURATION = 30000;
+    private static final Map<UUID, CachedRegionResult> regionCache = new ConcurrentHashMap<>();
+    private static volatile int regionVersion = 0;
+
+    /**
+     * Forgets all cached region results, for example after regions have been modified
+     */
+    public static void invalidateRegionCache() {
+        regionVersion++;
+        regionCache.clear();
+    }
+
+    /**
+     * Gets the flag values that apply to the player at the location, reusing the last result if the player hasn't
+     * moved to another block and the regions haven't changed.
+     * Safe to call asynchronously.
+     * @param player The player
+     * @param loc The location of the player
+     * @return The flag values
+     */
+    @NotNull
+    public static RegionResult getRegionResult(Player player, Location loc) {
+        UUID uuid = player.getUniqueId();
+        CachedRegionResult cached = regionCache.get(uuid);
+        if (cached != null && cached.isValidFor(loc))
+            return cached.result;
+
+        int version = regionVersion;
+        RegionResult result = queryRegions(player, loc);
+        regionCache.put(uuid, new CachedRegionResult(loc.getWorld().getUID(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(),
+                version, Config.generation, System.currentTimeMillis() + CACHE_DURATION, result));
+        return result;
+    }
+
+    private static RegionResult queryRegions(Player player, Location loc) {
         RegionContainer container = WorldGuard.getInstance().getPlatform().getRegionContainer();
 
         RegionQuery query = container.createQuery();
 
         var wgLocation = BukkitAdapter.adapt(loc);
         LocalPlayer wgPlayer = WorldGuardPlugin.inst().wrapPlayer(player);
+        boolean canUseBeacons = query.testState(wgLocation, wgPlayer, PORTABLE_BEACONS);
         Set<String> allowedEffects = query.queryValue(wgLocation, wgPlayer, PB_ALLOWED_EFFECTS);
         List<BeaconEffectsFilter> allowedFilters = null;
         if (allowedEffects != null) {
             allowedFilters = new ArrayList<>(allowedEffects.size());
             for (String allowed : allowedEffects) {
-                allowedFilters.add(BeaconEffectsFilter.fromString(allowed));
+                allowedFilters.add(BeaconEffectsFilter.intern(allowed));
             }
         }
         Set<String> blockedEffects = query.queryValue(wgLocation, wgPlayer, PB_BLOCKED_EFFECTS);
@@ -97,15 +221,40 @@ public class WorldGuardHelper {
         if (blockedEffects != null) {
             blockedFilters = new ArrayList<>(blockedEffects.size());
             for (String allowed : blockedEffects) {
-                blockedFilters.add(BeaconEffectsFilter.fromString(allowed));
+                blockedFilters.add(BeaconEffectsFilter.intern(allowed));
             }
         }
-        if (allowedFilters != null || blockedFilters != null) {
-            BeaconEffects newEffects = new BeaconEffects(effects);
-            newEffects.filter(allowedFilters, blockedFilters);
-            return newEffects;
+        return new RegionResult(canUseBeacons, allowedFilters, blockedFilters);
+    }
+
+    public static class RegionCacheListener implements Listener {
+        private static final Set<String> WORLDGUARD_COMMANDS = Set.of("region", "regions", "rg", "worldguard", "wg");
+
+        private static void checkCommand(String command) {
+            int end = command.indexOf(' ');
+            String label = (end == -1 ? command : command.substring(0, end)).toLowerCase(Locale.ENGLISH);
+            if (label.startsWith("worldguard:"))
+                label = label.substring("worldguard:".length());
+            if (WORLDGUARD_COMMANDS.contains(label)) {
+                // after the command has been executed
+                Bukkit.getScheduler().runTask(PortableBeacons.INSTANCE, WorldGuardHelper::invalidateRegionCache);
+            }
+        }
+
+        @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+        public void onPlayerCommand(PlayerCommandPreprocessEvent e) {
+            checkCommand(e.getMessage().substring(1));
+        }
+
+        @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+        public void onServerCommand(ServerCommandEvent e) {
+            checkCommand(e.getCommand().startsWith("/") ? e.getCommand().substring(1) : e.getCommand());
+        }
+
+        @EventHandler
+        public void onQuit(PlayerQuitEvent e) {
+            regionCache.remove(e.getPlayer().getUniqueId());
         }
-        return effects;
     }
 
     // I forgot why this was changed to Flag<String>
@@ -128,7 +277,7 @@ public class WorldGuardHelper {
         public String unmarshal(@Nullable Object o) {
             if (o == null)
                 return null;
-            return BeaconEffectsFilter.fromString(o.toString()).toString();
+            return BeaconEffectsFilter.intern(o.toString()).toString();
         }
 
         @Override
@@ -0,0 +1,41 @@
+import com.jacky8399.portablebeacons.utils.LongHashSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongHashSetTests {
+    @Test
+    public void matchesHashSet() {
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            // small range to get plenty of collisions and removals
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextBoolean())
+                assertEquals(expected.add(key), set.add(key), "add " + key);
+            else
+                assertEquals(expected.remove(key), set.remove(key), "remove " + key);
+            assertEquals(expected.size(), set.size());
+        }
+        for (long key = -1000; key < 1000; key++) {
+            assertEquals(expected.contains(key), set.contains(key), "contains " + key);
+        }
+    }
+
+    @Test
+    public void zeroKey() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+        assertTrue(set.remove(0));
+        assertTrue(set.isEmpty());
+    }
+}
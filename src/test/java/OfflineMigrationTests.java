@@ -0,0 +1,116 @@
+import com.jacky8399.portablebeacons.OfflineMigration;
+import com.jacky8399.portablebeacons.utils.NbtIO;
+import com.jacky8399.portablebeacons.utils.PackedEffects;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OfflineMigrationTests {
+    private static Map<String, Object> beacon(Map<String, Object> data) {
+        Map<String, Object> bukkitValues = new LinkedHashMap<>();
+        bukkitValues.put("portablebeacons:beacon_effect", data);
+        Map<String, Object> tag = new LinkedHashMap<>();
+        tag.put("PublicBukkitValues", bukkitValues);
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("id", "minecraft:beacon");
+        item.put("Count", (byte) 1);
+        item.put("tag", tag);
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getData(Map<String, Object> item) {
+        var tag = (Map<String, Object>) item.get("tag");
+        var bukkitValues = (Map<String, Object>) tag.get("PublicBukkitValues");
+        return (Map<String, Object>) bukkitValues.get("portablebeacons:beacon_effect");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void convertPlayerData(@TempDir Path playerData) throws Exception {
+        Map<String, Object> effects = new LinkedHashMap<>();
+        effects.put("minecraft:speed", (short) 3);
+        effects.put("minecraft:darkness", (short) 1);
+        Map<String, Object> disabled = new LinkedHashMap<>();
+        disabled.put("minecraft:darkness", (byte) 1);
+        Map<String, Object> v4 = new LinkedHashMap<>();
+        v4.put("portablebeacons:effects_v3", effects);
+        v4.put("portablebeacons:disabled_effects", disabled);
+        v4.put("portablebeacons:enchant_soulbound_level", 2);
+        v4.put("portablebeacons:enchant_soulbound_owner", new long[]{1, 2});
+        v4.put("portablebeacons:data_version", 4);
+        v4.put("portablebeacons:custom_data_version", "abcdef");
+
+        Map<String, Object> v2 = new LinkedHashMap<>();
+        v2.put("portablebeacons:effects_v2", "INCREASE_DAMAGE:2,UNKNOWN_EFFECT");
+        v2.put("portablebeacons:data_version", 2);
+        // in a shulker box
+        Map<String, Object> blockEntityTag = new LinkedHashMap<>();
+        blockEntityTag.put("Items", new NbtIO.NbtList(NbtIO.TAG_COMPOUND, List.of(beacon(v2))));
+        Map<String, Object> shulkerTag = new LinkedHashMap<>();
+        shulkerTag.put("BlockEntityTag", blockEntityTag);
+        Map<String, Object> shulker = new LinkedHashMap<>();
+        shulker.put("id", "minecraft:shulker_box");
+        shulker.put("tag", shulkerTag);
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("Inventory", new NbtIO.NbtList(NbtIO.TAG_COMPOUND, List.of(beacon(v4), shulker)));
+        root.put("EnderItems", new NbtIO.NbtList(NbtIO.TAG_END, List.of()));
+        Path file = playerData.resolve(UUID.randomUUID() + ".dat");
+        NbtIO.writeCompressed(root, file);
+        Path online = playerData.resolve(UUID.randomUUID() + ".dat");
+        NbtIO.writeCompressed(root, online);
+
+        var report = OfflineMigration.run(playerData, uuid -> online.getFileName().toString().startsWith(uuid.toString()), false, 2);
+        assertEquals(List.of(), report.errors());
+        assertEquals(1, report.files());
+        assertEquals(1, report.filesChanged());
+        assertEquals(2, report.itemsConverted());
+        assertEquals(1, report.playersSkipped());
+
+        var result = NbtIO.readCompressed(file);
+        var inventory = ((NbtIO.NbtList) result.get("Inventory")).elements();
+        var data = getData((Map<String, Object>) inventory.get(0));
+        assertEquals(5, data.get("portablebeacons:data_version"));
+        assertEquals("abcdef", data.get("portablebeacons:custom_data_version"));
+        assertArrayEquals(new long[]{1, 2}, (long[]) data.get("portablebeacons:enchant_soulbound_owner"));
+        var unpacked = PackedEffects.unpack((int[]) data.get("portablebeacons:packed_effects"));
+        assertArrayEquals(new int[]{PackedEffects.getId("minecraft:speed"), PackedEffects.getId("minecraft:darkness")}, unpacked.ids());
+        assertArrayEquals(new int[]{3, 1}, unpacked.levels());
+        assertTrue(unpacked.isDisabled(PackedEffects.getId("minecraft:darkness")));
+        assertEquals(2, unpacked.soulboundLevel());
+
+        var shulkerItems = (Map<String, Object>) ((Map<String, Object>) ((Map<String, Object>) inventory.get(1)).get("tag")).get("BlockEntityTag");
+        var nested = getData((Map<String, Object>) ((NbtIO.NbtList) shulkerItems.get("Items")).elements().get(0));
+        var nestedUnpacked = PackedEffects.unpack((int[]) nested.get("portablebeacons:packed_effects"));
+        assertArrayEquals(new int[]{PackedEffects.getId("minecraft:strength")}, nestedUnpacked.ids());
+        assertArrayEquals(new int[]{2}, nestedUnpacked.levels());
+        assertEquals(OfflineMigration.MIGRATED_CUSTOM_DATA_VERSION, nested.get("portablebeacons:custom_data_version"));
+        assertEquals(NbtIO.TAG_END, ((NbtIO.NbtList) result.get("EnderItems")).elementType());
+
+        // the online player's file is untouched
+        var untouched = NbtIO.readCompressed(online);
+        var untouchedData = getData((Map<String, Object>) ((NbtIO.NbtList) untouched.get("Inventory")).elements().get(0));
+        assertEquals(4, untouchedData.get("portablebeacons:data_version"));
+    }
+
+    @Test
+    public void skipUnpackableEffects(@TempDir Path playerData) throws Exception {
+        Map<String, Object> effects = new LinkedHashMap<>();
+        effects.put("someplugin:custom_effect", (short) 1);
+        Map<String, Object> v3 = new LinkedHashMap<>();
+        v3.put("portablebeacons:effects_v3", effects);
+        v3.put("portablebeacons:data_version", 3);
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("Inventory", new NbtIO.NbtList(NbtIO.TAG_COMPOUND, List.of(beacon(v3))));
+        NbtIO.writeCompressed(root, playerData.resolve(UUID.randomUUID() + ".dat"));
+
+        var report = OfflineMigration.run(playerData, uuid -> false, false, 1);
+        assertEquals(0, report.filesChanged());
+        assertEquals(1, report.itemsSkipped());
+    }
+}
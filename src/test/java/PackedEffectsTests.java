@@ -0,0 +1,49 @@
+import com.jacky8399.portablebeacons.utils.PackedEffects;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedEffectsTests {
+    @Test
+    public void roundTrip() {
+        int darkness = PackedEffects.getId("minecraft:darkness");
+        int speed = PackedEffects.getId("minecraft:speed");
+        long disabledMask = 1L << darkness;
+        var unpacked = new PackedEffects.Unpacked(new int[]{speed, darkness}, new int[]{3, 255}, disabledMask,
+                1, 2, 3, 4);
+
+        int[] data = PackedEffects.pack(unpacked);
+        var result = PackedEffects.unpack(data);
+
+        assertArrayEquals(unpacked.ids(), result.ids());
+        assertArrayEquals(unpacked.levels(), result.levels());
+        assertEquals(disabledMask, result.disabledMask());
+        assertTrue(result.isDisabled(darkness));
+        assertFalse(result.isDisabled(speed));
+        assertEquals(1, result.expReductionLevel());
+        assertEquals(2, result.soulboundLevel());
+        assertEquals(3, result.beaconatorLevel());
+        assertEquals(4, result.beaconatorSelectedLevel());
+    }
+
+    @Test
+    public void highDisabledBits() {
+        long disabledMask = 1L << 63 | 1L << 31 | 1;
+        var unpacked = new PackedEffects.Unpacked(new int[0], new int[0], disabledMask, 0, 0, 0, 0);
+
+        assertEquals(disabledMask, PackedEffects.unpack(PackedEffects.pack(unpacked)).disabledMask());
+    }
+
+    @Test
+    public void unknownEffects() {
+        assertEquals(-1, PackedEffects.getId("someplugin:custom_effect"));
+        var unpacked = new PackedEffects.Unpacked(new int[]{PackedEffects.EFFECT_KEYS.size()}, new int[]{1}, 0, 0, 0, 0, 0);
+        assertThrows(IllegalArgumentException.class, () -> PackedEffects.pack(unpacked));
+    }
+
+    @Test
+    public void invalidLength() {
+        assertThrows(IllegalArgumentException.class, () -> PackedEffects.unpack(new int[0]));
+        assertThrows(IllegalArgumentException.class, () -> PackedEffects.unpack(new int[]{2, 1, 0, 0, 0, 0, 0, 0}));
+    }
+}
@@ -0,0 +1,46 @@
+import com.jacky8399.portablebeacons.utils.PackedIndices;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedIndicesTests {
+    // the number of blocks in pyramids of tier 1 to 4
+    private static final int[] PYRAMID_SIZES = {9, 34, 83, 164};
+
+    @Test
+    public void roundTrip() {
+        Random random = new Random(42);
+        for (int bits = 1; bits <= 8; bits++) {
+            for (int size : PYRAMID_SIZES) {
+                int[] values = new int[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = random.nextInt(1 << bits);
+                }
+                // always include the largest value
+                values[size - 1] = (1 << bits) - 1;
+                byte[] packed = PackedIndices.pack(values, bits);
+                assertEquals((size * bits + 7) / 8, packed.length, "length for " + size + " values of " + bits + " bits");
+                assertArrayEquals(values, PackedIndices.unpack(packed, size, bits), size + " values of " + bits + " bits");
+            }
+        }
+    }
+
+    @Test
+    public void bitsPerValue() {
+        assertEquals(0, PackedIndices.getBitsPerValue(1));
+        assertEquals(1, PackedIndices.getBitsPerValue(2));
+        assertEquals(2, PackedIndices.getBitsPerValue(3));
+        assertEquals(2, PackedIndices.getBitsPerValue(4));
+        assertEquals(3, PackedIndices.getBitsPerValue(5));
+        assertEquals(8, PackedIndices.getBitsPerValue(164));
+    }
+
+    @Test
+    public void rejectWrongLength() {
+        byte[] packed = PackedIndices.pack(new int[9], 3);
+        assertThrows(IllegalStateException.class, () -> PackedIndices.unpack(new byte[packed.length - 1], 9, 3));
+        assertThrows(IllegalStateException.class, () -> PackedIndices.unpack(new byte[packed.length + 1], 9, 3));
+    }
+}